@@ -0,0 +1,168 @@
+package csp_solver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hardness-aware batch solver for Sudoku
+ *
+ * Every puzzle is scored first by root propagation: the score is log2 of the search space left
+ * after singles and locked candidates. Puzzles are then dispatched hardest first (longest
+ * processing time first) to a fixed number of worker threads, so that a slow puzzle is not left
+ * for the end while the other workers sit idle. A puzzle scoring above the split threshold is
+ * split on its most constrained cell into one subtree per candidate; the subtrees are scheduled
+ * as separate tasks. The subtrees of a puzzle that has already been solved are skipped, and
+ * those still running are cancelled.
+ */
+public class BatchScheduler {
+    private final int workers;
+    private final double splitThreshold;
+
+    private long makespan;
+    private long[] busy;
+    private int splits;
+
+    private static class Task {
+        final int puzzle;
+        final int[][] board;
+        final double score;
+
+        Task(int puzzle, int[][] board, double score) {
+            this.puzzle = puzzle;
+            this.board = board;
+            this.score = score;
+        }
+    }
+
+    /**
+     * @param workers         the number of worker threads
+     * @param splitThreshold  puzzles scoring above this (in bits of search space) are split
+     */
+    public BatchScheduler(int workers, double splitThreshold) {
+        this.workers = workers;
+        this.splitThreshold = splitThreshold;
+    }
+
+    /**
+     * Solve a batch of puzzles. Puzzles found in the shared solution cache are not scheduled,
+     * and the solutions of the others are stored there. Puzzles equivalent to an earlier one of
+     * the batch are answered from the cache once the earlier one is solved.
+     * @param boards  the puzzles, 0 for an empty cell
+     * @return the solutions in the order of boards, null for a puzzle without solution
+     */
+    public List<int[][]> solveAll(List<int[][]> boards) {
+        long before = System.currentTimeMillis();
+        List<Task> tasks = new ArrayList<>();
+        splits = 0;
+        SudokuCache cache = Sudoku.getCache();
+        AtomicReferenceArray<int[][]> solutions = new AtomicReferenceArray<>(boards.size());
+        boolean[] cached = new boolean[boards.size()];
+        Map<String, Integer> first = new HashMap<>();
+        List<Integer> duplicates = new ArrayList<>();
+        Map<Integer, SudokuPropagator> propagators = new HashMap<>(); // by board size
+        for (int p = 0; p < boards.size(); ++p) {
+            int[][] board = boards.get(p);
+            if (first.putIfAbsent(cache.key(board), p) != null) {
+                duplicates.add(p);
+                continue;
+            }
+            int[][] solution = cache.get(board);
+            if (solution != null) {
+                solutions.set(p, solution);
+                cached[p] = true;
+                continue;
+            }
+            // the fast path is counted once per puzzle, here, and not for its subtrees
+            SudokuPropagator propagator = propagators.computeIfAbsent(board.length, SudokuPropagator::new);
+            int status = propagator.propagate(board);
+            Sudoku.countFastPath(status != SudokuPropagator.UNDECIDED);
+            if (status == SudokuPropagator.CONTRADICTION)
+                continue;
+            int[][] reduced = new int[board.length][board.length];
+            propagator.getBoard(reduced);
+            if (status == SudokuPropagator.SOLVED) {
+                solutions.set(p, reduced);
+                continue;
+            }
+            board = reduced;
+            double score = propagator.searchSpace();
+            int cell = propagator.mostConstrainedCell();
+            if (score <= splitThreshold || cell < 0) {
+                tasks.add(new Task(p, board, score));
+                continue;
+            }
+            // split into one subtree per candidate of the most constrained cell
+            ++splits;
+            int candidates = propagator.getCandidates(cell);
+            int branches = Integer.bitCount(candidates);
+            for (int digit = 1; digit <= board.length; ++digit) {
+                if ((candidates & (1 << digit)) == 0)
+                    continue;
+                int[][] sub = new int[board.length][];
+                for (int i = 0; i < board.length; ++i)
+                    sub[i] = board[i].clone();
+                sub[cell / board.length][cell % board.length] = digit;
+                tasks.add(new Task(p, sub, score - Math.log(branches) / Math.log(2)));
+            }
+        }
+        tasks.sort(Comparator.comparingDouble((Task t) -> t.score).reversed());
+
+        ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>(tasks);
+        busy = new long[workers];
+        Thread[] threads = new Thread[workers];
+        for (int w = 0; w < workers; ++w) {
+            final int worker = w;
+            threads[w] = new Thread(() -> {
+                for (Task t = queue.poll(); t != null; t = queue.poll()) {
+                    if (solutions.get(t.puzzle) != null)
+                        continue; // another subtree already solved this puzzle
+                    long start = System.currentTimeMillis();
+                    int puzzle = t.puzzle;
+                    // a sibling subtree that solves the puzzle first cancels this search
+                    int[][] solution = Sudoku.solveFast(t.board, false, () -> solutions.get(puzzle) != null);
+                    if (solution != null)
+                        solutions.compareAndSet(t.puzzle, null, solution);
+                    busy[worker] += System.currentTimeMillis() - start;
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        makespan = System.currentTimeMillis() - before;
+
+        List<int[][]> result = new ArrayList<>();
+        for (int p = 0; p < boards.size(); ++p) {
+            if (!cached[p] && solutions.get(p) != null)
+                cache.put(boards.get(p), solutions.get(p));
+        }
+        for (int p : duplicates)
+            solutions.set(p, cache.get(boards.get(p)));
+        for (int p = 0; p < boards.size(); ++p)
+            result.add(solutions.get(p));
+        return result;
+    }
+
+    public long getMakespan() {
+        return makespan;
+    }
+
+    public void printStats() {
+        System.out.println(String.format("Makespan: %.2f second with %d workers, %d puzzles split",
+                makespan / 1000.0, workers, splits));
+        for (int w = 0; w < workers; ++w)
+            System.out.println(String.format("Worker %d: busy %.2f second, utilization %.2f%%",
+                    w, busy[w] / 1000.0, makespan == 0 ? 0.0 : 100.0 * busy[w] / makespan));
+    }
+}
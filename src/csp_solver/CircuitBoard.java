@@ -9,7 +9,7 @@ import javafx.util.Pair;
  */
 
 /**
- * Assumption: 1) Dimensions less than 10000
+ * Assumption: 1) Dimensions less than 10000, unless bounds domains are used
  *             2) Fewer than 10 components (for Acscii graphics to look nice since components are printed as numbers,
  *                      can be tweaked if necessary)
  *
@@ -19,9 +19,26 @@ public class CircuitBoard {
 
     private int boardWidth, boardHeight;
     private Map<Integer,Board> components;
+    private Map<Pair<Integer,Integer>,List<Integer>> groups = new HashMap<>(); // identical components, in symmetry order
+
+    // compiled network, cached on disk: the non-overlap relations keyed by (w1, h1, w2, h2) as
+    // bitsets over pairs of placement indices, and the domains keyed by (w, h) as bitsets over
+    // placement indices. A placement index is x*rows+y, with rows the number of y positions.
+    private Map<List<Integer>,BitSet> network;
+    private Map<List<Integer>,OverlapRelation> views = new HashMap<>(); // one shared view per relation
+    private boolean networkChanged = false;
     private static final int maxSize = 10000; // designed to ensure that integer is not overflowed
     private ConstraintSatisfactionProblem solver = new ConstraintSatisfactionProblem();
 
+    // if BOUNDS is chosen, or the board is too large for the hash encoding, or the domains are too
+    // large to enumerate, placements are searched over interval domains instead of enumerated domains
+    private static final boolean BOUNDS = false;
+    // largest number of placement pairs in one enumerated relation, which keeps the bit index of
+    // a relation within an int and its bitset within 8 MB
+    private static final long maxPairs = 1L << 26;
+    private PlacementSolver placement;
+    private Map<Integer,int[]> pinned = new HashMap<>();
+
     public static class Board{
         protected int width, height, index;
 
@@ -36,30 +53,180 @@ public class CircuitBoard {
 
         boardWidth = mainBoard.width;
         boardHeight = mainBoard.height;
-        this.components  = components;
+        this.components  = new HashMap<>(components);
+        for(int i=1; i<=components.size(); i++){
+            shapeGroup(components.get(i)).add(components.get(i).index);
+        }
+
+        long largest = 0;
+        for(Board b: components.values()){
+            largest = Math.max(largest, placementCount(b));
+        }
+        if(BOUNDS || boardWidth > maxSize || boardHeight > maxSize || largest*largest > maxPairs){
+            useBounds();
+            return;
+        }
+
+        network = NetworkCache.load(cacheFile());
 
         // Create Variables and domains
         for(Map.Entry<Integer,Board> e: components.entrySet()){
             Board b = e.getValue();
-            Set<Integer> domain = new HashSet<>();
+            solver.addVariable(b.index,placements(b));
+        }
+
+        // Create constraints, each one also applies in the reverse direction
+        for(int i=1; i<=components.size(); i++){
+            for(int j=i+1; j<=components.size(); j++){
+                addOverlapConstraint(components.get(i), components.get(j));
+            }
+        }
+
+        // Break symmetry between identical components
+        breakSymmetry();
+
+        saveRelations();
+    }
+
+    /**
+     * Add a component to a board that may already have been solved.
+     * Only the constraints between the new component and the existing ones are built,
+     * and the next solve starts from the previous solution.
+     * @param b  the new component
+     */
+    public void addComponent(Board b){
+        if(placement == null){
+            long largest = placementCount(b);
+            for(Board other: components.values()){
+                largest = Math.max(largest, placementCount(other));
+            }
+            if(largest*placementCount(b) > maxPairs){
+                // the new relations would be too large to enumerate, switch to bounds domains
+                components.put(b.index, b);
+                shapeGroup(b).add(b.index);
+                useBounds();
+                return;
+            }
+        }
+        if(placement != null){
+            placement.addComponent(b.index, b.width, b.height);
+            components.put(b.index, b);
+            List<Integer> group = shapeGroup(b);
+            if(!group.isEmpty()) {
+                placement.addSymmetryBreaking(group.get(group.size()-1), b.index);
+            }
+            group.add(b.index);
+            return;
+        }
+
+        solver.addVariable(b.index,placements(b));
+        for(Board other: components.values()){
+            addOverlapConstraint(b, other);
+        }
+        components.put(b.index, b);
+
+        // order the new component after its identical twins
+        List<Integer> group = shapeGroup(b);
+        if(!group.isEmpty()) {
+            solver.addSymmetryBreaking(group.get(group.size()-1), b.index);
+        }
+        group.add(b.index);
+
+        saveRelations();
+    }
+
+    /**
+     * Pin a component to a fixed lower left corner
+     * @param index  the index of the component
+     * @param x      the x coordinate of the lower left corner
+     * @param y      the y coordinate of the lower left corner
+     */
+    public void pin(int index, int x, int y){
+        Board b = components.get(index);
+        pinned.put(index, new int[]{x, y});
+        if(placement != null){
+            shapeGroup(b).remove(Integer.valueOf(index));
+            placement.pin(index, x, y);
+            return;
+        }
+
+        // a pinned component is no longer interchangeable with its twins
+        List<Integer> group = shapeGroup(b);
+        int k = group.indexOf(index);
+        if(k >= 0) {
+            group.remove(k);
+            for(int other: group){
+                addOverlapConstraint(b, components.get(other));
+            }
+            // re-chain the twins that were ordered through the pinned component
+            if(k > 0 && k < group.size()) {
+                solver.addSymmetryBreaking(group.get(k-1), group.get(k));
+            }
+        }
+        solver.setDomain(index, Collections.singleton(hashFunction(x,y)));
+    }
+
+    private long placementCount(Board b){
+        return (long) (boardWidth-b.width+1)*(boardHeight-b.height+1);
+    }
+
+    /**
+     * Search the placements over interval domains from now on, keeping the components,
+     * their pins and the symmetry breaking between identical ones
+     */
+    private void useBounds(){
+        placement = new PlacementSolver(boardWidth, boardHeight);
+        for(Board b: components.values()){
+            placement.addComponent(b.index, b.width, b.height);
+        }
+        for(Map.Entry<Integer,int[]> e: pinned.entrySet()){
+            placement.pin(e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
+        for(List<Integer> group: groups.values()){
+            for(int k=0; k+1<group.size(); k++){
+                placement.addSymmetryBreaking(group.get(k), group.get(k+1));
+            }
+        }
+    }
+
+    private Set<Integer> placements(Board b){
+        int rows = boardHeight-b.height+1;
+
+        List<Integer> key = Arrays.asList(b.width,b.height);
+        BitSet domain = network.get(key);
+        if(domain == null){
+            domain = new BitSet();
             for(int x=0; x<=boardWidth-b.width; x++){
                 for(int y=0; y<=boardHeight-b.height; y++){
-                    domain.add(hashFunction(x,y));
+                    domain.set(x*rows+y);
                 }
             }
-            solver.addVariable(b.index,domain);
+            network.put(key, domain);
+            networkChanged = true;
         }
 
-        // Create constraints
-        for(int i=1; i<=components.size(); i++){
-            for(int j=1; j<=components.size(); j++){
-                if(i==j)
-                    continue;
-                Set<Pair<Integer, Integer>> constraint = new HashSet<>();
-                int w1 = components.get(i).width;
-                int h1 = components.get(i).height;
-                int w2 = components.get(j).width;
-                int h2 = components.get(j).height;
+        Set<Integer> result = new HashSet<>();
+        for(int i=domain.nextSetBit(0); i>=0; i=domain.nextSetBit(i+1)){
+            result.add(hashFunction(i/rows,i%rows));
+        }
+        return result;
+    }
+
+    private void addOverlapConstraint(Board first, Board second){
+        int w1 = first.width;
+        int h1 = first.height;
+        int w2 = second.width;
+        int h2 = second.height;
+
+        List<Integer> key = Arrays.asList(w1,h1,w2,h2);
+        OverlapRelation view = views.get(key);
+        if(view == null){
+            BitSet relation = network.get(key);
+            if(relation == null){
+                int rows1 = boardHeight-h1+1;
+                int rows2 = boardHeight-h2+1;
+                int size2 = (boardWidth-w2+1)*rows2;
+                relation = new BitSet();
 
                 // loop through all combinations
                 for(int x1=0; x1<=boardWidth-w1; x1++){
@@ -67,28 +234,168 @@ public class CircuitBoard {
                         for(int x2=0; x2<=boardWidth-w2; x2++){
                             for(int y2=0; y2<=boardHeight-h2; y2++){
                                 if(notOverlap(x1,y1,w1,h1,x2,y2,w2,h2)){
-                                    constraint.add(new Pair<>(hashFunction(x1,y1),hashFunction(x2,y2)));
+                                    relation.set((x1*rows1+y1)*size2 + x2*rows2+y2);
                                 }
                             }
                         }
                     }
                 }
-                solver.addConstraint(components.get(i).index, components.get(j).index, constraint);
+                network.put(key, relation);
+                networkChanged = true;
+            }
+            view = new OverlapRelation(relation, w1, h1, w2, h2);
+            views.put(key, view);
+        }
+        solver.addConstraintView(first.index, second.index, view);
+    }
+
+    /**
+     * Zero copy view of a compiled non-overlap relation as pairs of hashed placements,
+     * so that a relation loaded from the cache is never expanded
+     */
+    private class OverlapRelation extends AbstractSet<Pair<Integer, Integer>> {
+        private final BitSet bits;
+        private final int columns1, rows1, columns2, rows2;
+        private final int size;
+
+        OverlapRelation(BitSet bits, int w1, int h1, int w2, int h2){
+            this.bits = bits;
+            columns1 = boardWidth-w1+1;
+            rows1 = boardHeight-h1+1;
+            columns2 = boardWidth-w2+1;
+            rows2 = boardHeight-h2+1;
+            size = bits.cardinality();
+        }
+
+        @Override
+        public boolean contains(Object o){
+            if(!(o instanceof Pair)){
+                return false;
+            }
+            Pair<?, ?> p = (Pair<?, ?>) o;
+            if(!(p.getKey() instanceof Integer) || !(p.getValue() instanceof Integer)){
+                return false;
+            }
+            int first = (Integer) p.getKey();
+            int second = (Integer) p.getValue();
+            int x1 = first%maxSize, y1 = first/maxSize;
+            int x2 = second%maxSize, y2 = second/maxSize;
+            if(first<0 || x1>=columns1 || y1>=rows1 || second<0 || x2>=columns2 || y2>=rows2){
+                return false;
+            }
+            return bits.get((x1*rows1+y1)*columns2*rows2 + x2*rows2+y2);
+        }
+
+        @Override
+        public Iterator<Pair<Integer, Integer>> iterator(){
+            return new Iterator<Pair<Integer, Integer>>() {
+                private int i = bits.nextSetBit(0);
+
+                @Override
+                public boolean hasNext(){
+                    return i >= 0;
+                }
+
+                @Override
+                public Pair<Integer, Integer> next(){
+                    if(i < 0){
+                        throw new NoSuchElementException();
+                    }
+                    int p1 = i/(columns2*rows2);
+                    int p2 = i%(columns2*rows2);
+                    i = bits.nextSetBit(i+1);
+                    return new Pair<>(hashFunction(p1/rows1,p1%rows1),hashFunction(p2/rows2,p2%rows2));
+                }
+            };
+        }
+
+        @Override
+        public int size(){
+            return size;
+        }
+    }
+
+    /**
+     * The compiled relations only depend on the board size and the shapes of the components
+     * @return the cache file for this board and component shape multiset
+     */
+    private java.nio.file.Path cacheFile(){
+        List<String> shapes = new ArrayList<>();
+        for(Board b: components.values()){
+            shapes.add(b.width+"x"+b.height);
+        }
+        Collections.sort(shapes);
+        return NetworkCache.path("circuit_"+boardWidth+"x"+boardHeight+"_"+String.join("-",shapes));
+    }
+
+    private void saveRelations(){
+        if(networkChanged){
+            NetworkCache.store(cacheFile(), network);
+            networkChanged = false;
+        }
+    }
+
+    /**
+     * Components with the same width and height are interchangeable. Order the placements of
+     * each group of identical components so that only one permutation is searched.
+     */
+    private void breakSymmetry(){
+        for(List<Integer> group: groups.values()){
+            for(int k=0; k+1<group.size(); k++){
+                solver.addSymmetryBreaking(group.get(k), group.get(k+1));
             }
         }
+    }
 
+    private List<Integer> shapeGroup(Board b){
+        Pair<Integer,Integer> shape = new Pair<>(b.width, b.height);
+        if(!groups.containsKey(shape)){
+            groups.put(shape, new ArrayList<>());
+        }
+        return groups.get(shape);
     }
 
+    /**
+     * Solve and draw the board. The grid takes memory proportional to the board, so large
+     * boards should use solveCorners instead.
+     * @return the index of the component covering each cell, 0 for a free cell, or null if
+     *         there is no placement
+     */
     public int[][] solve() {
+        Map<Integer, int[]> corners = solveCorners();
+        return corners == null ? null : render(corners);
+    }
+
+    /**
+     * Solve for the placement without drawing the board
+     * @return the lower left corner {x, y} of each component, or null if there is no placement
+     */
+    public Map<Integer, int[]> solveCorners() {
+        if(placement != null){
+            return placement.solve();
+        }
         Map<Integer, Integer> solution = solver.solve();
         if (solution == null)
             return null;
-        int[][] result = new int[boardHeight][boardWidth];
+        Map<Integer, int[]> corners = new HashMap<>();
         for(Map.Entry<Integer,Integer> e: solution.entrySet()){
-            int index = e.getKey();
             Pair<Integer,Integer> p = reverseHash(e.getValue());
-            int xlower = p.getKey();
-            int ylower = p.getValue();
+            corners.put(e.getKey(), new int[]{p.getKey(), p.getValue()});
+        }
+        return corners;
+    }
+
+    /**
+     * Draw a placement
+     * @param corners  the lower left corner {x, y} of each component
+     * @return the index of the component covering each cell, 0 for a free cell
+     */
+    public int[][] render(Map<Integer, int[]> corners) {
+        int[][] result = new int[boardHeight][boardWidth];
+        for(Map.Entry<Integer,int[]> e: corners.entrySet()){
+            int index = e.getKey();
+            int xlower = e.getValue()[0];
+            int ylower = e.getValue()[1];
             int w = components.get(index).width;
             int h = components.get(index).height;
 
@@ -102,6 +409,14 @@ public class CircuitBoard {
         return result;
     }
 
+    public int getNodeCount() {
+        return placement != null ? placement.getNodeCount() : solver.getNodeCount();
+    }
+
+    public int getConstraintCheck() {
+        return placement != null ? placement.getConstraintCheck() : solver.getConstraintCheck();
+    }
+
     private boolean notOverlap(int x1, int y1, int w1, int h1, int x2, int y2, int w2, int h2){
 
         // check if the lower left of second is within the first
@@ -1,6 +1,8 @@
 package csp_solver;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import javafx.util.Pair;
 
@@ -17,33 +19,104 @@ public class ConstraintSatisfactionProblem {
     private static final boolean MAC3 = false;
     private static final boolean FC = true;
 
+    // if SAT is chosen, the search is done by the CDCL SAT solver instead of backtracking
+    private static final boolean SAT = false;
+
+    // run with -Dcsp.trace=true to record a binary trace of the search, see TraceAnalyzer
+    private static final boolean TRACE = Boolean.getBoolean("csp.trace");
+    // each solve writes its own file, TRACE_FILE.<process id>.<solve number>, so that the solves of a
+    // benchmark and solvers running in parallel threads or processes do not overwrite each other
+    static final String TRACE_FILE = System.getProperty("csp.trace.file", "search.trace");
+    private static final AtomicInteger traces = new AtomicInteger();
+    private SearchTrace trace;
+    private int depth;
+
+    // checked at every node, the search gives up once it returns true
+    private BooleanSupplier cancelled = () -> false;
+
     private int nodesExplored;
     private int constraintsChecked;
     private Map<Integer,Set<Integer>> D;
+    // C.get(j).get(i) is always the transpose of C.get(i).get(j); each relation is stored once
+    // and the reverse direction is a view (or the relation itself when it is symmetric)
     private Map<Integer,Map<Integer, Set<Pair<Integer, Integer>>>> C;
     private Set<Pair<Integer,Integer>> arc;
     private Map<Integer,Set<Integer>> graph;
 
+    // identical relations are shared between constraints
+    private Map<Set<Pair<Integer, Integer>>, Set<Pair<Integer, Integer>>> relations;
+    private Map<Set<Pair<Integer, Integer>>, Set<Pair<Integer, Integer>>> transposes;
+
+    // support[index.get(i)][position(x)] is the number of neighbours of i that still have x in
+    // their domain. Only maintained when LCV is on, and rebuilt at the start of every solve.
+    private Map<Integer,Integer> index;
+    private int[][] neighbours;    // by variable index
+    private int[][] support;
+    private int[] valueList;       // every value of every domain, sorted
+    private boolean denseValues;   // valueList is a range, so position(x) = x - valueList[0]
+
+    // scratch buffers of orderDomainValues: the ordered values of each search level, and the sort keys
+    private int[][] orderBuffers;
+    private long[] sortKeys = new long[0];
+
+    // state kept between calls to solve() so that edits can be re-solved incrementally
+    private Map<Integer,Set<Integer>> declared;    // domains as given by the caller, before any pruning
+    private Set<Integer> touched;                  // variables whose domains or constraints were tightened
+    private boolean fullPropagation;               // an edit relaxed the problem, start again from declared
+    private Map<Integer,Integer> previousSolution; // used to warm start the next search
+
     public ConstraintSatisfactionProblem(){
         resetStats();
         D = new HashMap<>();
         C = new HashMap<>();
         arc = new HashSet<>();
         graph = new HashMap<>();
+        relations = new HashMap<>();
+        transposes = new IdentityHashMap<>();
+        index = new HashMap<>();
+        declared = new HashMap<>();
+        touched = new HashSet<>();
+        fullPropagation = true;
+        previousSolution = new HashMap<>();
     }
     /**
      * Solve for the CSP problem
+     * After the first call, only the arcs touched by edits made since the last call are
+     * re-propagated, and the search is warm started from the previous solution.
      * @return the mapping from variables to values
      */
     public Map<Integer, Integer> solve() {
         resetStats();
         long before = System.currentTimeMillis();
-        if (!enforceConsistency()) {
+        if (fullPropagation) {
+            D = copyDomains(declared);
+        }
+        if (LCV) {
+            initSupport();
+        }
+        orderBuffers = new int[D.size() + 1][];
+        if (TRACE) {
+            openTrace();
+        }
+        boolean consistent = enforceConsistency();
+        touched.clear();
+        if (!consistent) {
+            fullPropagation = true; // the domains are wiped out, rebuild them on the next call
+            closeTrace();
             return null;
         }
+        fullPropagation = false;
+
+        // keep the arc consistent domains so that the next solve can start from them
+        Map<Integer,Set<Integer>> consistentDomains = copyDomains(D);
         Map<Integer, Integer> solution;
 
-        solution = backtracking(new HashMap<>());
+        solution = SAT ? satSearch() : backtracking(new HashMap<>());
+        closeTrace();
+        D = consistentDomains;
+        if (solution != null) {
+            previousSolution = new HashMap<>(solution);
+        }
 
         double duration = (System.currentTimeMillis() - before) / 1000.0;
         printStats();
@@ -51,6 +124,41 @@ public class ConstraintSatisfactionProblem {
         return solution;
     }
     
+    private void openTrace() {
+        depth = 0;
+        try {
+            String file = TRACE_FILE + "." + ProcessHandle.current().pid() + "." + traces.getAndIncrement();
+            trace = new SearchTrace(java.nio.file.FileSystems.getDefault().getPath(file));
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+            trace = null;
+        }
+    }
+
+    private void closeTrace() {
+        if (trace == null) {
+            return;
+        }
+        try {
+            trace.close();
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+        }
+        trace = null;
+    }
+
+    /**
+     * Record a search event, a no-op unless tracing is on
+     * @param type    the event type, see SearchTrace
+     * @param first   the first operand
+     * @param second  the second operand
+     */
+    private void trace(int type, int first, int second) {
+        if (TRACE && trace != null) {
+            trace.record(type, depth, first, second);
+        }
+    }
+    
     private void resetStats() {
         nodesExplored = 0;
         constraintsChecked = 0;
@@ -77,29 +185,108 @@ public class ConstraintSatisfactionProblem {
         System.out.println("Constraints checked during last search " + constraintsChecked);
     }
 
+    /**
+     * Let another thread stop the search, e.g. once the result is no longer needed.
+     * A cancelled solve returns null. The SAT search is not cancelled.
+     * @param cancelled  checked at every search node
+     */
+    public void setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
     /**
      * Add a variable with its domain
      * @param id      the identifier of the variable
      * @param domain  the domain of the variable
      */
     public void addVariable(Integer id, Set<Integer> domain) {
+        setDomain(id, domain);
+    }
+
+    /**
+     * Replace the domain of a variable, e.g. to pin it to a single value or to release it.
+     * Shrinking a domain, or adding a new variable, is re-propagated incrementally; growing
+     * a domain forces full propagation on the next solve.
+     * @param id      the identifier of the variable
+     * @param domain  the new domain of the variable
+     */
+    public void setDomain(Integer id, Set<Integer> domain) {
+        declared.put(id, new HashSet<>(domain));
+        if(D.containsKey(id) && !D.get(id).containsAll(domain)) {
+            fullPropagation = true;
+        }
         D.put(id, new HashSet<>(domain));
+        touched.add(id);
+    }
+
+    /**
+     * Remove a variable together with all the constraints on it
+     * @param id  the identifier of the variable
+     */
+    public void removeVariable(Integer id) {
+        for(int i: new ArrayList<>(graph.getOrDefault(id, Collections.emptySet()))){
+            removeConstraint(id, i);
+        }
+        D.remove(id);
+        declared.remove(id);
+        previousSolution.remove(id);
+        fullPropagation = true;
     }
     
     /**
      * Add a binary constraint
+     * The constraint also applies in the reverse direction, so adding (id2, id1) with the
+     * transposed relation afterwards changes nothing.
      * @param id1         the identifier of the first variable
      * @param id2         the identifier of the second variable
      * @param constraint  the constraint
      */
     public void addConstraint(Integer id1, Integer id2, Set<Pair<Integer, Integer>> constraint) {
 
-        // add constraints
-        if(!C.containsKey(id1)) {
-            C.put(id1, new HashMap<>());
+        // the same constraint seen from the other side
+        if(C.containsKey(id1) && C.get(id1).containsKey(id2)) {
+            if(C.get(id1).get(id2).equals(constraint)) {
+                return;
+            }
+            // replacing a constraint may loosen it
+            fullPropagation = true;
         }
+        link(id1, id2, intern(constraint));
+    }
+
+    /**
+     * Add a binary constraint given as an immutable view, e.g. over a bitset.
+     * The view is used as is: it is neither copied nor hashed, so a large relation costs
+     * nothing to add, and passing the same object for several constraints stores it once.
+     * @param id1   the identifier of the first variable
+     * @param id2   the identifier of the second variable
+     * @param view  the constraint, must not change afterwards
+     */
+    public void addConstraintView(Integer id1, Integer id2, Set<Pair<Integer, Integer>> view) {
+
+        if(C.containsKey(id1) && C.get(id1).containsKey(id2)) {
+            if(C.get(id1).get(id2) == view) {
+                return;
+            }
+            fullPropagation = true;
+        }
+        if(!transposes.containsKey(view)) {
+            register(view);
+        }
+        link(id1, id2, view);
+    }
 
-        C.get(id1).put(id2,new HashSet<>(constraint));
+    /**
+     * Helper function for addConstraint and addConstraintView
+     * @param id1       the identifier of the first variable
+     * @param id2       the identifier of the second variable
+     * @param relation  an interned relation or a registered view
+     */
+    private void link(Integer id1, Integer id2, Set<Pair<Integer, Integer>> relation) {
+        touched.add(id1);
+        touched.add(id2);
+
+        putRelation(id1, id2, relation);
 
         // add arcs
         arc.add(new Pair<>(id1, id2));
@@ -111,17 +298,335 @@ public class ConstraintSatisfactionProblem {
         }
         graph.get(id1).add(id2);
 
+        if(!graph.containsKey(id2)){
+            graph.put(id2,new HashSet<>());
+        }
+        graph.get(id2).add(id1);
+
+    }
+
+    /**
+     * Remove the binary constraint between two variables, in both directions
+     * @param id1  the identifier of the first variable
+     * @param id2  the identifier of the second variable
+     */
+    public void removeConstraint(Integer id1, Integer id2) {
+        if(!C.containsKey(id1) || C.get(id1).remove(id2) == null) {
+            return;
+        }
+        C.get(id2).remove(id1);
+        graph.get(id1).remove(id2);
+        graph.get(id2).remove(id1);
+        arc.remove(new Pair<>(id1, id2));
+        arc.remove(new Pair<>(id2, id1));
+        fullPropagation = true;
+    }
+
+    /**
+     * Store a relation for (id1, id2) and its transpose for (id2, id1)
+     * @param id1       the identifier of the first variable
+     * @param id2       the identifier of the second variable
+     * @param relation  an interned relation
+     */
+    private void putRelation(Integer id1, Integer id2, Set<Pair<Integer, Integer>> relation) {
+        if(!C.containsKey(id1)) {
+            C.put(id1, new HashMap<>());
+        }
+        if(!C.containsKey(id2)) {
+            C.put(id2, new HashMap<>());
+        }
+        C.get(id1).put(id2, relation);
+        C.get(id2).put(id1, transposes.get(relation));
+    }
+
+    /**
+     * Share identical relations
+     * @param constraint  the relation
+     * @return the stored relation equal to constraint
+     */
+    private Set<Pair<Integer, Integer>> intern(Set<Pair<Integer, Integer>> constraint) {
+        if(transposes.containsKey(constraint)) { // already stored
+            return constraint;
+        }
+        Set<Pair<Integer, Integer>> shared = relations.get(constraint);
+        if(shared == null) {
+            shared = Collections.unmodifiableSet(new HashSet<>(constraint));
+            relations.put(shared, shared);
+
+            Set<Pair<Integer, Integer>> transpose = new Transpose(shared);
+            if(transpose.equals(shared)) { // symmetric relation, it is its own transpose
+                transposes.put(shared, shared);
+            }else{
+                transposes.put(shared, transpose);
+                transposes.put(transpose, shared);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Store a view and its transpose without comparing them to the interned relations
+     * @param view  an immutable relation
+     */
+    private void register(Set<Pair<Integer, Integer>> view) {
+        Set<Pair<Integer, Integer>> transpose = new Transpose(view);
+        transposes.put(view, transpose);
+        transposes.put(transpose, view);
+    }
+
+    /**
+     * Zero copy view of the transpose of a relation
+     */
+    private static class Transpose extends AbstractSet<Pair<Integer, Integer>> {
+        private final Set<Pair<Integer, Integer>> relation;
+
+        Transpose(Set<Pair<Integer, Integer>> relation) {
+            this.relation = relation;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Pair)) {
+                return false;
+            }
+            Pair<?, ?> p = (Pair<?, ?>) o;
+            return relation.contains(new Pair<>(p.getValue(), p.getKey()));
+        }
+
+        @Override
+        public Iterator<Pair<Integer, Integer>> iterator() {
+            Iterator<Pair<Integer, Integer>> it = relation.iterator();
+            return new Iterator<Pair<Integer, Integer>>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Pair<Integer, Integer> next() {
+                    Pair<Integer, Integer> p = it.next();
+                    return new Pair<>(p.getValue(), p.getKey());
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return relation.size();
+        }
+    }
+
+    /**
+     * Zero copy view of the pairs (x, y) of a relation with x < y
+     */
+    private static class Ordered extends AbstractSet<Pair<Integer, Integer>> {
+        private final Set<Pair<Integer, Integer>> relation;
+        private int size = -1;
+
+        Ordered(Set<Pair<Integer, Integer>> relation) {
+            this.relation = relation;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Pair)) {
+                return false;
+            }
+            Pair<?, ?> p = (Pair<?, ?>) o;
+            return p.getKey() instanceof Integer && p.getValue() instanceof Integer
+                    && (Integer) p.getKey() < (Integer) p.getValue() && relation.contains(p);
+        }
+
+        @Override
+        public Iterator<Pair<Integer, Integer>> iterator() {
+            Iterator<Pair<Integer, Integer>> it = relation.iterator();
+            return new Iterator<Pair<Integer, Integer>>() {
+                private Pair<Integer, Integer> next = advance();
+
+                private Pair<Integer, Integer> advance() {
+                    while(it.hasNext()) {
+                        Pair<Integer, Integer> p = it.next();
+                        if(p.getKey() < p.getValue()) {
+                            return p;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Pair<Integer, Integer> next() {
+                    if(next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Pair<Integer, Integer> p = next;
+                    next = advance();
+                    return p;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            if(size < 0) { // the relation is immutable, count once
+                size = 0;
+                for(Iterator<Pair<Integer, Integer>> it = iterator(); it.hasNext(); it.next()) {
+                    ++size;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Helper function to copy a set of domains
+     * @param domains  the domains to be copied
+     * @return a deep copy of domains
+     */
+    private static Map<Integer,Set<Integer>> copyDomains(Map<Integer,Set<Integer>> domains) {
+        Map<Integer,Set<Integer>> copy = new HashMap<>();
+        for(Map.Entry<Integer,Set<Integer>> e: domains.entrySet()){
+            copy.put(e.getKey(), new HashSet<>(e.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Declare two variables as interchangeable and break the symmetry between them
+     * by requiring value(id1) < value(id2). Must be called after the constraints between
+     * id1 and id2 have been added; a missing constraint is created from the current domains.
+     * Only one assignment out of each symmetric pair survives, so failing branches are not
+     * re-explored under every permutation of the interchangeable variables.
+     * @param id1  the identifier of the first variable
+     * @param id2  the identifier of the second variable
+     */
+    public void addSymmetryBreaking(Integer id1, Integer id2) {
+
+        if(!C.containsKey(id1) || !C.get(id1).containsKey(id2)) {
+            Set<Pair<Integer, Integer>> constraint = new HashSet<>();
+            for(int x: D.get(id1)){
+                for(int y: D.get(id2)){
+                    constraint.add(new Pair<>(x, y));
+                }
+            }
+            addConstraint(id1, id2, constraint);
+        }
+        Set<Pair<Integer, Integer>> ordered = new Ordered(C.get(id1).get(id2));
+        register(ordered);
+        putRelation(id1, id2, ordered);
+        touched.add(id1);
+        touched.add(id2);
+    }
+
+    /**
+     * Compute the support counts used by LCV from scratch
+     */
+    private void initSupport() {
+        Set<Integer> all = new TreeSet<>();
+        for(Set<Integer> domain: D.values()){
+            all.addAll(domain);
+        }
+        valueList = new int[all.size()];
+        int k = 0;
+        for(int x: all){
+            valueList[k++] = x;
+        }
+        denseValues = k == 0 || valueList[k-1] - valueList[0] + 1 == k;
+
+        index.clear();
+        for(int var: D.keySet()){
+            index.put(var, index.size());
+        }
+        neighbours = new int[index.size()][];
+        support = new int[index.size()][valueList.length];
+        for(Map.Entry<Integer,Integer> e: index.entrySet()){
+            Set<Integer> adjacent = graph.getOrDefault(e.getKey(), Collections.emptySet());
+            int[] row = new int[adjacent.size()];
+            int n = 0;
+            for(int i: adjacent){
+                Integer j = index.get(i);
+                if(j == null) {
+                    continue;
+                }
+                row[n++] = j;
+                for(int x: D.get(i)){
+                    support[e.getValue()][position(x)]++;
+                }
+            }
+            neighbours[e.getValue()] = Arrays.copyOf(row, n);
+        }
+    }
+
+    /**
+     * Position of a value in the support counts
+     * @param value  a value of some domain
+     * @return the index of value in valueList
+     */
+    private int position(int value) {
+        return denseValues ? value - valueList[0] : Arrays.binarySearch(valueList, value);
+    }
+
+    /**
+     * Remove a value from the domain of a variable, keeping the support counts up to date
+     * @param var    the identifier of the variable
+     * @param value  the value to be removed
+     */
+    private void removeValue(Integer var, Integer value) {
+        if(D.get(var).remove(value) && LCV) {
+            updateSupport(var, value, -1);
+        }
+    }
+
+    /**
+     * Put a value back into the domain of a variable, keeping the support counts up to date
+     * @param var    the identifier of the variable
+     * @param value  the value to be restored
+     */
+    private void restoreValue(Integer var, Integer value) {
+        if(D.get(var).add(value) && LCV) {
+            updateSupport(var, value, 1);
+        }
+    }
+
+    /**
+     * Helper function for removeValue and restoreValue
+     * @param var    the variable whose domain changed
+     * @param value  the value that was removed or restored
+     * @param delta  -1 for a removal, +1 for a restoration
+     */
+    private void updateSupport(Integer var, Integer value, int delta) {
+        int p = position(value);
+        for(int i: neighbours[index.get(var)]){
+            support[i][p] += delta;
+        }
     }
     
     /**
      * Enforce consistency by AC-3, PC-3.
+     * Only the arcs around touched variables are queued unless full propagation is needed.
      */
     private boolean enforceConsistency() {
 
         Queue<Pair<Integer,Integer>> q = new LinkedList<>();
 
-        // add all arcs to the queue
-        q.addAll(arc);
+        if(fullPropagation) {
+            // add all arcs to the queue
+            q.addAll(arc);
+        }else{
+            // add the arcs around the variables changed since the last solve
+            Set<Pair<Integer,Integer>> affected = new HashSet<>();
+            for(int t: touched){
+                for(int i: graph.getOrDefault(t, Collections.emptySet())){
+                    affected.add(new Pair<>(i, t));
+                    affected.add(new Pair<>(t, i));
+                }
+            }
+            q.addAll(affected);
+        }
 
         return AC3(q,false,null);
     }
@@ -142,6 +647,7 @@ public class ConstraintSatisfactionProblem {
 
             if(revise(p.getKey(),p.getValue(),infer,removed)){
                 if(D.get(p.getKey()).isEmpty()) {
+                    trace(SearchTrace.WIPEOUT, p.getKey(), 0);
                     return false;
                 }
                 if(graph.containsKey(p.getKey())) {
@@ -169,6 +675,8 @@ public class ConstraintSatisfactionProblem {
 
         boolean revised = false;
         Set<Integer> toremove = new HashSet<>();
+        Set<Pair<Integer,Integer>> relation = C.get(id1).get(id2);
+        trace(SearchTrace.REVISE, id1, id2);
 
         for(int x: D.get(id1)){
 
@@ -178,8 +686,7 @@ public class ConstraintSatisfactionProblem {
                 Pair<Integer,Integer> p = new Pair<>(x,y);
 
                 // there exist a (x,y) that satisfied the constraint
-                if((C.containsKey(id1) && C.get(id1).containsKey(id2) && C.get(id1).get(id2).contains(p)) ||
-                        (C.containsKey(id2) && C.get(id2).containsKey(id1) && C.get(id2).get(id1).contains(p))){
+                if(relation.contains(p)){
                     flag = false;
                     break;
                 }
@@ -193,7 +700,8 @@ public class ConstraintSatisfactionProblem {
 
         // remove all entries
         for (int i : toremove) {
-            D.get(id1).remove(i);
+            trace(SearchTrace.PRUNE, id1, i);
+            removeValue(id1, i);
         }
 
         if(infer && revised){
@@ -203,6 +711,7 @@ public class ConstraintSatisfactionProblem {
                 removed.get(id1).addAll(toremove);
             }
         }
+        trace(SearchTrace.REVISE_END, id1, id2);
 
         return revised;
     }
@@ -218,18 +727,22 @@ public class ConstraintSatisfactionProblem {
     private boolean FC(Integer var, Integer value, Map<Integer, Integer> partialSolution, Map<Integer, Set<Integer>> removed){
         for(int v: graph.get(var)){
             if(!partialSolution.containsKey(v)){
+                Set<Pair<Integer,Integer>> relation = C.get(var).get(v);
                 for(int u: new HashSet<>(D.get(v))){
                     Pair<Integer,Integer> p = new Pair<>(value,u);
-                    if(!C.get(var).get(v).contains(p)){
+                    if(!relation.contains(p)){
                         if(!removed.containsKey(v)) {
                             removed.put(v,new HashSet<>());
                         }
                         removed.get(v).add(u);
-                        D.get(v).remove(u);
+                        trace(SearchTrace.PRUNE, v, u);
+                        removeValue(v, u);
                     }
                 }
-                if(D.get(v).isEmpty())
+                if(D.get(v).isEmpty()) {
+                    trace(SearchTrace.WIPEOUT, v, 0);
                     return false;
+                }
             }
         }
         return true;
@@ -248,14 +761,25 @@ public class ConstraintSatisfactionProblem {
         }
 
         int var = selectUnassignedVariable(partialSolution);
+        int count = orderDomainValues(var, partialSolution);
+        int[] values = orderBuffers[partialSolution.size()];
 
-        for(int value: orderDomainValues(var, partialSolution)){
+        for(int k=0; k<count; k++){
+            if(cancelled.getAsBoolean()) {
+                return null;
+            }
+            int value = values[k];
             Map<Integer,Set<Integer>> removed = new HashMap<>();
 
             if(isConsistent(var,value,partialSolution) && !partialSolution.containsKey(var)){
                 partialSolution.put(var, value);
+                depth = partialSolution.size();
+                trace(SearchTrace.ASSIGN, var, value);
+                trace(SearchTrace.INFER_BEGIN, var, 0);
+                boolean consistent = inference(var,value,partialSolution,removed);
+                trace(SearchTrace.INFER_END, var, consistent ? 1 : 0);
 
-                if(inference(var,value,partialSolution,removed)){
+                if(consistent){
                     Map<Integer,Integer> result = backtracking(partialSolution);
 
                     if(result != null){
@@ -265,14 +789,121 @@ public class ConstraintSatisfactionProblem {
             }
 
             for(Map.Entry<Integer,Set<Integer>> e: removed.entrySet()){
-                D.get(e.getKey()).addAll(e.getValue());
+                for(int u: e.getValue()){
+                    restoreValue(e.getKey(), u);
+                }
             }
 
-            partialSolution.remove(var);
+            if(partialSolution.remove(var) != null) {
+                trace(SearchTrace.BACKTRACK, var, value);
+                depth = partialSolution.size();
+            }
         }
         return null;
     }
 
+    /**
+     * Search with the CDCL SAT solver
+     * Uses the direct encoding for the domains and the support encoding for the constraints:
+     * one boolean per (variable, value), exactly one value per variable, and for every constraint
+     * C(id1,id2) and value x of id1, x implies one of the supports of x in the domain of id2
+     * (and symmetrically for the values of id2). Nodes explored counts the decisions and
+     * constraints checked counts the propagated literals.
+     * @return a solution if found, null otherwise.
+     */
+    private Map<Integer, Integer> satSearch() {
+        SatSolver sat = new SatSolver();
+        Map<Integer,Map<Integer,Integer>> literal = new HashMap<>();
+
+        // domains
+        for(Map.Entry<Integer,Set<Integer>> e: D.entrySet()){
+            Map<Integer,Integer> lits = new HashMap<>();
+            for(int x: e.getValue()){
+                lits.put(x, sat.newVariable());
+            }
+            literal.put(e.getKey(), lits);
+
+            int[] vars = new int[lits.size()];
+            int k = 0;
+            for(int v: lits.values()){
+                vars[k++] = v;
+            }
+            int[] atLeastOne = new int[vars.length];
+            for(int i=0; i<vars.length; i++){
+                atLeastOne[i] = SatSolver.positive(vars[i]);
+                for(int j=i+1; j<vars.length; j++){
+                    sat.addClause(SatSolver.negative(vars[i]), SatSolver.negative(vars[j]));
+                }
+            }
+            sat.addClause(atLeastOne);
+        }
+
+        // constraints
+        for(Map.Entry<Integer,Map<Integer,Set<Pair<Integer,Integer>>>> e1: C.entrySet()){
+            int id1 = e1.getKey();
+            for(Map.Entry<Integer,Set<Pair<Integer,Integer>>> e2: e1.getValue().entrySet()){
+                int id2 = e2.getKey();
+                if(id1 > id2) { // each constraint is encoded once, (id2, id1) is its transpose
+                    continue;
+                }
+                Set<Pair<Integer,Integer>> relation = e2.getValue();
+                Map<Integer,List<Integer>> supports1 = new HashMap<>();
+                Map<Integer,List<Integer>> supports2 = new HashMap<>();
+                for(int x: D.get(id1)){
+                    supports1.put(x, new ArrayList<>());
+                }
+                for(int y: D.get(id2)){
+                    supports2.put(y, new ArrayList<>());
+                }
+                for(int x: D.get(id1)){
+                    for(int y: D.get(id2)){
+                        incrementConstraintCheck();
+                        if(relation.contains(new Pair<>(x,y))){
+                            supports1.get(x).add(SatSolver.positive(literal.get(id2).get(y)));
+                            supports2.get(y).add(SatSolver.positive(literal.get(id1).get(x)));
+                        }
+                    }
+                }
+                addSupportClauses(sat, literal.get(id1), supports1);
+                addSupportClauses(sat, literal.get(id2), supports2);
+            }
+        }
+
+        boolean satisfiable = sat.solve();
+        nodesExplored += (int) sat.getDecisions();
+        constraintsChecked += (int) sat.getPropagations();
+        if(!satisfiable){
+            return null;
+        }
+
+        Map<Integer,Integer> solution = new HashMap<>();
+        for(Map.Entry<Integer,Map<Integer,Integer>> e: literal.entrySet()){
+            for(Map.Entry<Integer,Integer> l: e.getValue().entrySet()){
+                if(sat.modelValue(l.getValue())){
+                    solution.put(e.getKey(), l.getKey());
+                }
+            }
+        }
+        return solution;
+    }
+
+    /**
+     * Helper function for satSearch
+     * @param sat       the SAT solver
+     * @param lits      the boolean variable of each value of the constrained variable
+     * @param supports  the literals supporting each value of the constrained variable
+     */
+    private static void addSupportClauses(SatSolver sat, Map<Integer,Integer> lits, Map<Integer,List<Integer>> supports) {
+        for(Map.Entry<Integer,List<Integer>> e: supports.entrySet()){
+            int[] clause = new int[e.getValue().size() + 1];
+            clause[0] = SatSolver.negative(lits.get(e.getKey()));
+            for(int i=0; i<e.getValue().size(); i++){
+                clause[i+1] = e.getValue().get(i);
+            }
+            sat.addClause(clause);
+        }
+    }
+
     /**
      * isConsistent - helper function to check if a value is consistent
      * @param var               the identifier of the variable
@@ -288,7 +919,7 @@ public class ConstraintSatisfactionProblem {
 
                     Pair<Integer, Integer> p = new Pair<>(value, partialSolution.get(i));
 
-                    if (C.containsKey(var) && C.get(var).containsKey(i) && !C.get(var).get(i).contains(p))
+                    if (!C.get(var).get(i).contains(p))
                         return false;
 
                 }
@@ -318,8 +949,11 @@ public class ConstraintSatisfactionProblem {
         }
 
         // remove all values for var in domain, except for the guess
-        D.get(var).clear();
-        D.get(var).add(value);
+        for(int u: removed.get(var)){
+            if(u != value) {
+                removeValue(var, u);
+            }
+        }
 
         if(!MAC3 && !FC){ // short circuit if inference is not used
             return true;
@@ -340,43 +974,66 @@ public class ConstraintSatisfactionProblem {
     /**
      * Look-ahead value ordering
      * Pick the least constraining value (min-conflicts)
+     * The conflict count of each value is read from the incrementally maintained support counts.
+     * The values are written to the buffer of the current search level, so no array is allocated
+     * per node.
      * @param var              the variable to be assigned
      * @param partialSolution  the partial solution
-     * @return an order of values in var's domain
+     * @return the number of values, ordered at the front of orderBuffers[partialSolution.size()]
      */
-    private Iterable<Integer> orderDomainValues(Integer var, Map<Integer, Integer> partialSolution) {
+    private int orderDomainValues(Integer var, Map<Integer, Integer> partialSolution) {
 
-        if(!LCV) { // return the unordered domain if LCV heuristic is not used
-            return new HashSet<>(D.get(var));
+        Set<Integer> domain = D.get(var);
+        int level = partialSolution.size();
+        if(orderBuffers[level] == null || orderBuffers[level].length < domain.size()) {
+            orderBuffers[level] = new int[domain.size()];
         }
-
-        Integer[][] result = new Integer[D.get(var).size()][2];
+        int[] result = orderBuffers[level];
         int r = 0;
+        for(int num: domain){
+            result[r++] = num;
+        }
 
-        for(int num: D.get(var)){
-            int count = 0;
+        if(LCV) {
+            // pack (count, value) into a long so that a primitive sort orders by count
+            int[] counts = support[index.get(var)];
+            if(sortKeys.length < r) {
+                sortKeys = new long[r];
+            }
+            for(int i=0; i<r; i++){
+                sortKeys[i] = ((long) counts[position(result[i])] << 32) | (result[i] & 0xFFFFFFFFL);
+            }
 
-            // check with immediate neighbours
-            if(graph.get(var) != null) {
-                for (int i : graph.get(var)) {
-                    if (D.get(i).contains(num))
-                        count++;
-                }
+            // the greater the count, the more conflicts there are. Sort in ascending order
+            Arrays.sort(sortKeys, 0, r);
+            for(int i=0; i<r; i++){
+                result[i] = (int) sortKeys[i];
             }
-            result[r][0] = num;
-            result[r][1] = count;
-            r++;
         }
 
-        // the greater the count, the more conflicts there are. Sort in ascending order
-        Arrays.sort(result, Comparator.comparing((Integer[] arr) -> arr[1]));
-        List<Integer> res = new ArrayList<>();
+        warmStart(var, result, r);
+        return r;
+    }
 
-        for(int i=0; i<result.length; i++){
-            res.add(result[i][0]);
+    /**
+     * Warm start - move the value var took in the previous solution to the front,
+     * so that an edited problem is repaired around the old solution where possible
+     * @param var     the variable to be assigned
+     * @param values  the ordered values of var
+     * @param count   the number of values
+     */
+    private void warmStart(Integer var, int[] values, int count) {
+        Integer previous = previousSolution.get(var);
+        if(previous == null) {
+            return;
+        }
+        for(int i=0; i<count; i++){
+            if(values[i] == previous){
+                System.arraycopy(values, 0, values, 1, i);
+                values[0] = previous;
+                break;
+            }
         }
-
-        return res;
     }
 
     /**
@@ -0,0 +1,449 @@
+package csp_solver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-process batch solver over TCP
+ *
+ * A coordinator streams Sudoku puzzles and circuit board instances to worker JVMs and collects
+ * the results. Each worker keeps up to WINDOW jobs in flight, so jobs and results are pipelined
+ * instead of paying a round trip per job. When a worker disconnects or dies, its jobs in flight
+ * are put back at the front of the queue and dispatched to the other workers; local workers that
+ * die are restarted. Workers on other machines can join by connecting to the coordinator port.
+ * A job that was being solved by MAX_RETRIES + 1 workers when they died is given up, and the run
+ * is given up when no worker has been left for WORKER_TIMEOUT.
+ *
+ * The protocol is one line per message:
+ *   job     id S <81 digits, 0 for an empty cell>
+ *           id C <board width> <board height> <w>,<h>;<w>,<h>;...
+ *   result  id <1 if solved> <nodes> <constraints checked> <second> <1 if fast path> <1 if cached>
+ * The statistics are aggregated and printed the same way as Sudoku.benchmark.
+ *
+ * Usage: java csp_solver.DistributedSolver coordinator <port> <local workers> [job file]
+ *        java csp_solver.DistributedSolver worker <host> <port>
+ */
+public class DistributedSolver {
+    private static final int WINDOW = 16;       // jobs in flight per worker
+    private static final int RESULT_FIELDS = 7;
+    private static final int MAX_RESTARTS = 3;  // per local worker
+    private static final int MAX_RETRIES = 2;   // per job whose worker died while solving it
+    private static final long WORKER_TIMEOUT = 30000; // milliseconds without any worker
+
+    private final List<String> jobs;
+    private final LinkedBlockingDeque<Integer> queue = new LinkedBlockingDeque<>();
+    private final AtomicReferenceArray<String[]> results;
+    private final CountDownLatch remaining;
+    private final List<Connection> connections = new ArrayList<>();
+    private volatile boolean finished = false;
+    private final AtomicInteger redispatched = new AtomicInteger();
+    private final AtomicIntegerArray failures;
+    // connected workers and local workers that are running or can be restarted
+    private final AtomicInteger workers = new AtomicInteger();
+
+    /**
+     * @param jobs  the jobs in the format of the protocol, without the id
+     */
+    public DistributedSolver(List<String> jobs) {
+        this.jobs = jobs;
+        results = new AtomicReferenceArray<>(jobs.size());
+        failures = new AtomicIntegerArray(jobs.size());
+        remaining = new CountDownLatch(jobs.size());
+        for (int id = 0; id < jobs.size(); ++id)
+            queue.add(id);
+    }
+
+    /**
+     * A connected worker: a sender thread writes jobs while the window allows it, and a reader
+     * thread records the results and frees the window
+     */
+    private class Connection {
+        private final Socket socket;
+        private final Semaphore window = new Semaphore(WINDOW);
+        // in the order of dispatch, the worker solves the first one
+        private final Set<Integer> inFlight = new LinkedHashSet<>();
+        private boolean dead = false;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void start() {
+            Thread sender = new Thread(this::send);
+            Thread reader = new Thread(this::read);
+            sender.setDaemon(true);
+            reader.setDaemon(true);
+            sender.start();
+            reader.start();
+        }
+
+        private void send() {
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+                while (!finished) {
+                    window.acquire();
+                    if (!dispatch(out, queue.takeFirst()))
+                        return;
+                    // fill the rest of the window without blocking, then send the batch
+                    while (window.tryAcquire()) {
+                        Integer id = queue.pollFirst();
+                        if (id == null) {
+                            window.release();
+                            break;
+                        }
+                        if (!dispatch(out, id))
+                            return;
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                fail();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean dispatch(Writer out, int id) throws IOException {
+            synchronized (this) {
+                if (dead) {
+                    queue.addFirst(id);
+                    return false;
+                }
+                inFlight.add(id);
+            }
+            out.write(id + " " + jobs.get(id) + "\n");
+            return true;
+        }
+
+        private void read() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    String[] result = line.split(" ");
+                    int id = parseResult(result);
+                    boolean expected;
+                    synchronized (this) {
+                        expected = id >= 0 && inFlight.remove(id);
+                    }
+                    if (!expected) {
+                        System.out.println("Disconnecting a worker after an unexpected result: " + line);
+                        return;
+                    }
+                    if (results.compareAndSet(id, null, result))
+                        remaining.countDown();
+                    window.release();
+                }
+            } catch (IOException | RuntimeException e) {
+                // handled as a disconnect
+            } finally {
+                fail();
+            }
+        }
+
+        /**
+         * Put the jobs in flight back at the front of the queue, once. The job the worker was
+         * solving is given up instead if it has already been retried MAX_RETRIES times.
+         */
+        private synchronized void fail() {
+            if (dead)
+                return;
+            dead = true;
+            workers.decrementAndGet();
+            if (!finished && !inFlight.isEmpty()) {
+                List<Integer> ids = new ArrayList<>(inFlight);
+                int first = 0;
+                if (failures.incrementAndGet(ids.get(0)) > MAX_RETRIES) {
+                    System.out.println(String.format("Job %d was being solved by %d workers that died, giving up",
+                            ids.get(0), MAX_RETRIES + 1));
+                    if (results.compareAndSet(ids.get(0), null, new String[] { String.valueOf(ids.get(0)), "0" }))
+                        remaining.countDown();
+                    first = 1;
+                }
+                // keep the order of dispatch at the front of the queue
+                for (int i = ids.size() - 1; i >= first; --i) {
+                    queue.addFirst(ids.get(i));
+                    redispatched.incrementAndGet();
+                }
+            }
+            inFlight.clear();
+            window.release(WINDOW); // wake the sender so that it sees the connection is dead
+            close();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Check a result line against the protocol
+     * @param result  the fields of the line
+     * @return the job id, or -1 if the result is malformed
+     */
+    private int parseResult(String[] result) {
+        if (result.length != RESULT_FIELDS)
+            return -1;
+        try {
+            int id = Integer.parseInt(result[0]);
+            Integer.parseInt(result[2]);
+            Integer.parseInt(result[3]);
+            Double.parseDouble(result[4]);
+            return id >= 0 && id < jobs.size() ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Accept workers and solve every job
+     * @param server        the coordinator socket
+     * @param localWorkers  the number of worker processes to start on this machine
+     * @return false if the run was given up because no worker was left
+     */
+    public boolean run(ServerSocket server, int localWorkers) {
+        Thread acceptor = new Thread(() -> {
+            while (!finished) {
+                try {
+                    Connection connection = new Connection(server.accept());
+                    workers.incrementAndGet();
+                    synchronized (connections) {
+                        connections.add(connection);
+                    }
+                    connection.start();
+                } catch (IOException e) {
+                    return; // the server socket was closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        List<Process> processes = new ArrayList<>();
+        for (int w = 0; w < localWorkers; ++w) {
+            Thread monitor = new Thread(() -> {
+                try {
+                    for (int restarts = 0; !finished && restarts <= MAX_RESTARTS; ++restarts) {
+                        Process process = startWorker(server.getLocalPort());
+                        synchronized (processes) {
+                            processes.add(process);
+                        }
+                        process.waitFor();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    // the coordinator is done
+                } finally {
+                    workers.decrementAndGet();
+                }
+            });
+            workers.incrementAndGet();
+            monitor.setDaemon(true);
+            monitor.start();
+        }
+
+        boolean solved = false;
+        try {
+            long idleSince = System.currentTimeMillis();
+            while (!(solved = remaining.await(1, TimeUnit.SECONDS))) {
+                if (workers.get() > 0) {
+                    idleSince = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - idleSince > WORKER_TIMEOUT) {
+                    System.out.println(String.format("No worker left, giving up %d jobs", remaining.getCount()));
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finished = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (connections) {
+            for (Connection connection : connections)
+                connection.close();
+        }
+        synchronized (processes) {
+            for (Process process : processes)
+                process.destroy();
+        }
+        return solved;
+    }
+
+    private static Process startWorker(int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                DistributedSolver.class.getName(), "worker", "localhost", String.valueOf(port));
+        builder.inheritIO();
+        return builder.start();
+    }
+
+    @SuppressWarnings("boxing")
+    public void printStats() {
+        List<Integer> nodes = new ArrayList<>();
+        List<Integer> constraints = new ArrayList<>();
+        List<Double> durations = new ArrayList<>();
+        double max = Double.NEGATIVE_INFINITY;
+        String hardest = "";
+        int sudokus = 0;
+        int fastPath = 0;
+        int cached = 0;
+        for (int id = 0; id < jobs.size(); ++id) {
+            String[] result = results.get(id);
+            if (result == null || !result[1].equals("1")) {
+                System.out.println("Solution not found for " + jobs.get(id));
+                continue;
+            }
+            if (jobs.get(id).startsWith("S")) {
+                ++sudokus;
+                if (result[6].equals("1")) {
+                    ++cached; // not solved, so left out of the solver statistics
+                    continue;
+                }
+                if (result[5].equals("1"))
+                    ++fastPath;
+            }
+            nodes.add(Integer.parseInt(result[2]));
+            constraints.add(Integer.parseInt(result[3]));
+            double duration = Double.parseDouble(result[4]);
+            durations.add(duration);
+            if (duration > max) {
+                max = duration;
+                hardest = jobs.get(id).substring(2);
+            }
+        }
+        if (!durations.isEmpty())
+            Sudoku.printBenchmarkStats(nodes, constraints, durations, hardest);
+        if (sudokus > 0) {
+            Sudoku.printFastPathStats(fastPath, sudokus - cached);
+            System.out.println(String.format("Solution cache: %d hits (left out of the statistics), %d misses, hit rate %.2f%% over all workers",
+                    cached, sudokus - cached, 100.0 * cached / sudokus));
+        }
+        System.out.println(String.format("Jobs dispatched again after a worker failure: %d", redispatched.get()));
+    }
+
+    /**
+     * Solve a job and format its result, without the id
+     * @param job  the job in the format of the protocol, without the id
+     */
+    @SuppressWarnings("boxing")
+    public static String solve(String job) {
+        String[] parts = job.split(" ");
+        if (parts[0].equals("S")) {
+            String b = parts[1];
+            String[] board = new String[9];
+            for (int i = 0; i < 9; ++i)
+                board[i] = b.substring(i * 9, (i + 1) * 9);
+            Sudoku.Measurement m = Sudoku.measure(Sudoku.transform(board));
+            return String.format("%d %d %d %s %d %d", m.isValid() ? 1 : 0, m.nodes, m.constraints,
+                    Double.toString(m.duration), m.fastPath ? 1 : 0, m.cached ? 1 : 0);
+        }
+        CircuitBoard.Board mainBoard = new CircuitBoard.Board(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), 0);
+        Map<Integer, CircuitBoard.Board> components = new HashMap<>();
+        String[] shapes = parts[3].split(";");
+        for (int i = 0; i < shapes.length; ++i) {
+            String[] shape = shapes[i].split(",");
+            components.put(i + 1, new CircuitBoard.Board(Integer.parseInt(shape[0]), Integer.parseInt(shape[1]), i + 1));
+        }
+        CircuitBoard circuit = new CircuitBoard(mainBoard, components);
+        long before = System.currentTimeMillis();
+        Map<Integer, int[]> solution = circuit.solveCorners();
+        double duration = (System.currentTimeMillis() - before) / 1000.0;
+        return String.format("%d %d %d %s 0 0", solution != null ? 1 : 0, circuit.getNodeCount(),
+                circuit.getConstraintCheck(), Double.toString(duration));
+    }
+
+    /**
+     * Solve jobs from a coordinator until it disconnects. Results are flushed whenever no
+     * further job is waiting, so a batch of jobs is answered with a batch of results.
+     */
+    public static void work(String host, int port) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+            socket.setTcpNoDelay(true);
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                int space = line.indexOf(' ');
+                out.write(line.substring(0, space) + " " + solve(line.substring(space + 1)) + "\n");
+                if (!in.ready())
+                    out.flush();
+            }
+        }
+    }
+
+    /**
+     * Read jobs from a file: a Sudoku per line of 81 digits, or a circuit board per line as
+     * "C <board width> <board height> <w>,<h>;<w>,<h>;..."
+     */
+    public static List<String> readJobs(String file) throws IOException {
+        List<String> jobs = new ArrayList<>();
+        for (String line : Files.readAllLines(FileSystems.getDefault().getPath(".", file), StandardCharsets.US_ASCII)) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            jobs.add(line.startsWith("C ") ? line : "S " + line);
+        }
+        return jobs;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("worker")) {
+            // the solvers print their statistics for every search
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    // discarded
+                }
+            }));
+            work(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        if (args.length < 3 || !args[0].equals("coordinator")) {
+            System.err.println("Usage: DistributedSolver coordinator <port> <local workers> [job file]");
+            System.err.println("       DistributedSolver worker <host> <port>");
+            return;
+        }
+        boolean solved;
+        DistributedSolver coordinator = new DistributedSolver(readJobs(args.length > 3 ? args[3] : Sudoku.SHORT_TEST));
+        try (ServerSocket server = new ServerSocket(Integer.parseInt(args[1]))) {
+            System.out.println("Coordinator listening on port " + server.getLocalPort());
+            long before = System.currentTimeMillis();
+            solved = coordinator.run(server, Integer.parseInt(args[2]));
+            System.out.println(String.format("Makespan: %.2f second", (System.currentTimeMillis() - before) / 1000.0));
+        }
+        coordinator.printStats();
+        if (!solved)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,128 @@
+package csp_solver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of compiled constraint networks.
+ *
+ * A network is stored as a list of bitsets, each keyed by a list of integers: relations over the
+ * pairs of value indices of the variables they constrain, and domains over value indices (for
+ * CircuitBoard, keyed by the two component shapes or by one shape). A file is loaded with one bulk
+ * read into heap bitsets, and the caller can wrap the bitsets in views instead of expanding them.
+ *
+ * File format (big endian):
+ *   int magic, int number of relations,
+ *   then per relation: int key length, int[] key, int number of words, long[] words
+ */
+public class NetworkCache {
+    private static final int MAGIC = 0x43535031; // "CSP1"
+    private static final String CACHE_DIR = System.getProperty("csp.cache.dir", ".csp_cache");
+
+    /**
+     * Path of the cache file for a given name
+     * @param name  the cache key, must be a valid file name
+     * @return the path of the cache file
+     */
+    public static Path path(String name) {
+        return FileSystems.getDefault().getPath(CACHE_DIR, name + ".bin");
+    }
+
+    /**
+     * Load a compiled network
+     * @param file  the cache file
+     * @return the relations stored in the file, or an empty map if there is no usable file
+     */
+    public static Map<List<Integer>, BitSet> load(Path file) {
+        Map<List<Integer>, BitSet> relations = new HashMap<>();
+        if (!Files.isReadable(file))
+            return relations;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+                ;
+            buffer.flip();
+            if (buffer.getInt() != MAGIC)
+                return relations;
+            int count = buffer.getInt();
+            for (int r = 0; r < count; ++r) {
+                Integer[] key = new Integer[buffer.getInt()];
+                for (int i = 0; i < key.length; ++i)
+                    key[i] = buffer.getInt();
+                int words = buffer.getInt();
+                LongBuffer bits = buffer.slice().asLongBuffer();
+                bits.limit(words);
+                relations.put(Arrays.asList(key), BitSet.valueOf(bits));
+                buffer.position(buffer.position() + words * Long.BYTES);
+            }
+        } catch (IOException | RuntimeException e) {
+            // a truncated or corrupt file is treated as a cache miss
+            e.printStackTrace();
+            relations.clear();
+        }
+        return relations;
+    }
+
+    /**
+     * Store a compiled network. The file is written next to its final location and then
+     * moved into place, so a concurrent reader never sees a partial file.
+     * @param file       the cache file
+     * @param relations  the relations to be stored
+     */
+    public static void store(Path file, Map<List<Integer>, BitSet> relations) {
+        int size = 2 * Integer.BYTES;
+        Map<List<Integer>, long[]> encoded = new HashMap<>();
+        for (Map.Entry<List<Integer>, BitSet> e : relations.entrySet()) {
+            long[] words = e.getValue().toLongArray();
+            encoded.put(e.getKey(), words);
+            size += (2 + e.getKey().size()) * Integer.BYTES + words.length * Long.BYTES;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(encoded.size());
+        for (Map.Entry<List<Integer>, long[]> e : encoded.entrySet()) {
+            buffer.putInt(e.getKey().size());
+            for (int k : e.getKey())
+                buffer.putInt(k);
+            long[] words = e.getValue();
+            buffer.putInt(words.length);
+            buffer.asLongBuffer().put(words);
+            buffer.position(buffer.position() + words.length * Long.BYTES);
+        }
+        buffer.flip();
+
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), "network", ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            // left behind only if the write or the move failed
+            try {
+                if (tmp != null)
+                    Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
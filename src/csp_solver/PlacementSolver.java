@@ -0,0 +1,298 @@
+package csp_solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rectangle placement solver over bounds domains
+ *
+ * Each component is a 2D placement variable whose lower left corner ranges over the intervals
+ * [xmin, xmax] x [ymin, ymax], so memory does not depend on the size of the board. Non-overlap
+ * between two components holds if one of them is left of, right of, below or above the other;
+ * bounds-consistency drops the cases the current bounds rule out and, when a single case is left,
+ * tightens the bounds to enforce it. Search bisects the interval of a coordinate, so the depth
+ * grows with the logarithm of the board size, and undoes bound changes through a trail.
+ */
+public class PlacementSolver {
+    private static final int XMIN = 0, XMAX = 1, YMIN = 2, YMAX = 3;
+
+    private int boardWidth, boardHeight;
+    private int size;
+    private int[] ids = new int[0];
+    private int[] width = new int[0];
+    private int[] height = new int[0];
+    private int[] bounds = new int[0]; // 4 bounds per component
+    private Map<Integer, Integer> slot = new HashMap<>();
+    private List<int[]> ordered = new ArrayList<>(); // pairs whose corners must be in lexicographic order
+
+    // trail of (bound, old value) to undo bound changes on backtrack
+    private int[] trail = new int[64];
+    private int trailSize;
+
+    private int nodesExplored;
+    private int constraintsChecked;
+
+    public PlacementSolver(int boardWidth, int boardHeight) {
+        this.boardWidth = boardWidth;
+        this.boardHeight = boardHeight;
+    }
+
+    /**
+     * Add a component, free to go anywhere on the board
+     * @param id      the identifier of the component
+     * @param w       the width of the component
+     * @param h       the height of the component
+     */
+    public void addComponent(int id, int w, int h) {
+        int k = size++;
+        if (size > ids.length) {
+            int capacity = Math.max(8, 2 * size);
+            ids = Arrays.copyOf(ids, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            bounds = Arrays.copyOf(bounds, 4 * capacity);
+        }
+        ids[k] = id;
+        width[k] = w;
+        height[k] = h;
+        slot.put(id, k);
+        bounds[4 * k + XMIN] = 0;
+        bounds[4 * k + XMAX] = boardWidth - w;
+        bounds[4 * k + YMIN] = 0;
+        bounds[4 * k + YMAX] = boardHeight - h;
+    }
+
+    /**
+     * Pin a component to a fixed lower left corner, or free it again. A corner that puts the
+     * component off the board leaves it no placement, so solve returns null.
+     * @param id  the identifier of the component
+     * @param x   the x coordinate, or -1 to free the component
+     * @param y   the y coordinate, or -1 to free the component
+     */
+    public void pin(int id, int x, int y) {
+        int k = slot.get(id);
+        // an off-board coordinate gives an empty interval
+        bounds[4 * k + XMIN] = x < 0 ? 0 : x;
+        bounds[4 * k + XMAX] = x < 0 ? boardWidth - width[k] : Math.min(x, boardWidth - width[k]);
+        bounds[4 * k + YMIN] = y < 0 ? 0 : y;
+        bounds[4 * k + YMAX] = y < 0 ? boardHeight - height[k] : Math.min(y, boardHeight - height[k]);
+        // a pinned component is no longer interchangeable; re-chain the twins ordered through it
+        int previous = -1, next = -1;
+        for (int[] p : ordered) {
+            if (p[1] == k)
+                previous = p[0];
+            if (p[0] == k)
+                next = p[1];
+        }
+        ordered.removeIf(p -> p[0] == k || p[1] == k);
+        if (previous >= 0 && next >= 0)
+            ordered.add(new int[] {previous, next});
+    }
+
+    /**
+     * Break the symmetry between two interchangeable components by requiring
+     * (x1, y1) to be lexicographically smaller than (x2, y2)
+     * @param id1  the identifier of the first component
+     * @param id2  the identifier of the second component
+     */
+    public void addSymmetryBreaking(int id1, int id2) {
+        ordered.add(new int[] {slot.get(id1), slot.get(id2)});
+    }
+
+    /**
+     * Solve for the placement
+     * @return the lower left corner {x, y} of each component, or null if there is no placement
+     */
+    public Map<Integer, int[]> solve() {
+        nodesExplored = 0;
+        constraintsChecked = 0;
+        long before = System.currentTimeMillis();
+
+        int[] initial = bounds.clone();
+        trailSize = 0;
+        Map<Integer, int[]> solution = null;
+        if (!emptyDomain() && search()) {
+            solution = new HashMap<>();
+            for (int k = 0; k < size; ++k)
+                solution.put(ids[k], new int[] {bounds[4 * k + XMIN], bounds[4 * k + YMIN]});
+        }
+        bounds = initial;
+
+        double duration = (System.currentTimeMillis() - before) / 1000.0;
+        printStats();
+        System.out.println(String.format("Search time is %.2f second", duration));
+        return solution;
+    }
+
+    public int getNodeCount() {
+        return nodesExplored;
+    }
+
+    public int getConstraintCheck() {
+        return constraintsChecked;
+    }
+
+    protected void printStats() {
+        System.out.println("Nodes explored during last search:  " + nodesExplored);
+        System.out.println("Constraints checked during last search " + constraintsChecked);
+    }
+
+    /**
+     * @return true if a component has no placement, e.g. when it is pinned off the board or
+     * does not fit on it
+     */
+    private boolean emptyDomain() {
+        for (int k = 0; k < size; ++k) {
+            if (bounds[4 * k + XMIN] > bounds[4 * k + XMAX] || bounds[4 * k + YMIN] > bounds[4 * k + YMAX])
+                return true;
+        }
+        return false;
+    }
+
+    private boolean search() {
+        ++nodesExplored;
+        if (!propagate())
+            return false;
+
+        // pick the unfixed component with the fewest placements left
+        int best = -1;
+        long min = Long.MAX_VALUE;
+        for (int k = 0; k < size; ++k) {
+            long placements = (long) (bounds[4 * k + XMAX] - bounds[4 * k + XMIN] + 1)
+                    * (bounds[4 * k + YMAX] - bounds[4 * k + YMIN] + 1);
+            if (placements > 1 && placements < min) {
+                min = placements;
+                best = k;
+            }
+        }
+        if (best < 0)
+            return true;
+
+        int lower = bounds[4 * best + XMIN] < bounds[4 * best + XMAX] ? 4 * best + XMIN : 4 * best + YMIN;
+        int mid = bounds[lower] + (bounds[lower + 1] - bounds[lower]) / 2;
+        int mark = trailSize;
+
+        // left branch: lower half of the interval
+        setBound(lower + 1, mid);
+        if (search())
+            return true;
+        undo(mark);
+
+        // right branch: upper half of the interval
+        setBound(lower, mid + 1);
+        if (search())
+            return true;
+        undo(mark);
+        return false;
+    }
+
+    /**
+     * Bounds-consistency of all constraints, to a fixpoint
+     * @return false if a domain becomes empty
+     */
+    private boolean propagate() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < size; ++i) {
+                for (int j = i + 1; j < size; ++j) {
+                    ++constraintsChecked;
+                    int result = reviseNonOverlap(i, j);
+                    if (result < 0)
+                        return false;
+                    changed |= result > 0;
+                }
+            }
+            for (int[] p : ordered) {
+                ++constraintsChecked;
+                int result = reviseOrder(p[0], p[1]);
+                if (result < 0)
+                    return false;
+                changed |= result > 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Revise the non-overlap constraint between two components
+     * @return -1 on failure, 1 if a bound changed, 0 otherwise
+     */
+    private int reviseNonOverlap(int i, int j) {
+        int bi = 4 * i, bj = 4 * j;
+        boolean left = bounds[bi + XMIN] + width[i] <= bounds[bj + XMAX];   // i left of j
+        boolean right = bounds[bj + XMIN] + width[j] <= bounds[bi + XMAX];  // j left of i
+        boolean below = bounds[bi + YMIN] + height[i] <= bounds[bj + YMAX]; // i below j
+        boolean above = bounds[bj + YMIN] + height[j] <= bounds[bi + YMAX]; // j below i
+        int cases = (left ? 1 : 0) + (right ? 1 : 0) + (below ? 1 : 0) + (above ? 1 : 0);
+        if (cases == 0)
+            return -1;
+        if (cases > 1)
+            return 0;
+        if (left)
+            return before(bi + XMIN, width[i], bj + XMIN);
+        if (right)
+            return before(bj + XMIN, width[j], bi + XMIN);
+        if (below)
+            return before(bi + YMIN, height[i], bj + YMIN);
+        return before(bj + YMIN, height[j], bi + YMIN);
+    }
+
+    /**
+     * Enforce first + length <= second on the bounds of two coordinates
+     * @param first   the lower bound slot of the first coordinate
+     * @param length  the extent of the first component along the coordinate
+     * @param second  the lower bound slot of the second coordinate
+     * @return -1 on failure, 1 if a bound changed, 0 otherwise
+     */
+    private int before(int first, int length, int second) {
+        int changed = 0;
+        if (bounds[second] < bounds[first] + length) {
+            setBound(second, bounds[first] + length);
+            changed = 1;
+        }
+        if (bounds[first + 1] > bounds[second + 1] - length) {
+            setBound(first + 1, bounds[second + 1] - length);
+            changed = 1;
+        }
+        if (bounds[first] > bounds[first + 1] || bounds[second] > bounds[second + 1])
+            return -1;
+        return changed;
+    }
+
+    /**
+     * Revise the lexicographic order (x1, y1) < (x2, y2)
+     * @return -1 on failure, 1 if a bound changed, 0 otherwise
+     */
+    private int reviseOrder(int i, int j) {
+        int bi = 4 * i, bj = 4 * j;
+        int changed = before(bi + XMIN, 0, bj + XMIN);
+        if (changed < 0)
+            return -1;
+        if (bounds[bi + XMIN] == bounds[bi + XMAX] && bounds[bj + XMIN] == bounds[bj + XMAX]
+                && bounds[bi + XMIN] == bounds[bj + XMIN]) {
+            int result = before(bi + YMIN, 1, bj + YMIN);
+            if (result != 0)
+                return result;
+        }
+        return changed;
+    }
+
+    private void setBound(int b, int value) {
+        if (trailSize + 2 > trail.length)
+            trail = Arrays.copyOf(trail, 2 * trail.length);
+        trail[trailSize++] = b;
+        trail[trailSize++] = bounds[b];
+        bounds[b] = value;
+    }
+
+    private void undo(int mark) {
+        while (trailSize > mark) {
+            int old = trail[--trailSize];
+            bounds[trail[--trailSize]] = old;
+        }
+    }
+}
@@ -17,7 +17,13 @@ public class Queens {
         for (int i = 1; i <= numberOfQueens; ++i)
             domain.add(i);
         // Create variables
-        for (int i = 1; i <= numberOfQueens; ++i)
+        // Break the left-right mirror symmetry of the board: the first queen only needs to be
+        // tried in the left half (including the middle column when N is odd)
+        Set<Integer> firstDomain = new HashSet<>();
+        for (int i = 1; i <= (numberOfQueens + 1) / 2; ++i)
+            firstDomain.add(i);
+        solver.addVariable(1, firstDomain);
+        for (int i = 2; i <= numberOfQueens; ++i)
             solver.addVariable(i, domain);
         // Create constraints
         for (int i = 1; i <= numberOfQueens; ++i) {
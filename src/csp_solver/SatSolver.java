@@ -0,0 +1,490 @@
+package csp_solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Simple CDCL SAT solver
+ *
+ * Conflict driven clause learning with two watched literals, first UIP learning with local
+ * clause minimization, VSIDS branching with phase saving, Luby restarts and activity based
+ * reduction of the learnt clause database.
+ *
+ * Variables are numbered from 0. Literal 2v is v, literal 2v+1 is the negation of v.
+ */
+public class SatSolver {
+    private static final byte TRUE = 1;
+    private static final byte FALSE = -1;
+    private static final byte UNDEF = 0;
+
+    private static final double VAR_DECAY = 0.95;
+    private static final double CLAUSE_DECAY = 0.999;
+    private static final int RESTART_BASE = 100;
+    private static final double LEARNT_GROWTH = 1.1;
+
+    private static class Clause {
+        int[] lits;
+        boolean learnt;
+        boolean deleted;
+        double activity;
+
+        Clause(int[] lits, boolean learnt) {
+            this.lits = lits;
+            this.learnt = learnt;
+        }
+    }
+
+    private int numVars;
+    private boolean ok = true;
+    private List<Clause> clauses = new ArrayList<>();
+    private List<Clause> learnts = new ArrayList<>();
+    private List<List<Clause>> watches = new ArrayList<>(); // watches.get(p): clauses watching the negation of p
+
+    // assignment
+    private byte[] assigns = new byte[0];
+    private int[] level = new int[0];
+    private Clause[] reason = new Clause[0];
+    private boolean[] polarity = new boolean[0]; // saved phase, true for negative
+    private int[] trail = new int[0];
+    private int trailSize;
+    private int qhead;
+    private int[] trailLim = new int[0];
+    private int decisionLevel;
+
+    // VSIDS
+    private double[] activity = new double[0];
+    private double varInc = 1;
+    private double claInc = 1;
+    private int[] heap = new int[0];
+    private int[] heapIndex = new int[0];
+    private int heapSize;
+
+    private boolean[] seen = new boolean[0];
+    private double maxLearnts;
+
+    private long decisions;
+    private long conflicts;
+    private long propagations;
+
+    public static int positive(int var) {
+        return 2 * var;
+    }
+
+    public static int negative(int var) {
+        return 2 * var + 1;
+    }
+
+    private static int var(int lit) {
+        return lit >> 1;
+    }
+
+    /**
+     * Add a new variable
+     * @return the identifier of the variable
+     */
+    public int newVariable() {
+        int v = numVars++;
+        if (numVars > assigns.length) {
+            int capacity = Math.max(16, 2 * numVars);
+            assigns = Arrays.copyOf(assigns, capacity);
+            level = Arrays.copyOf(level, capacity);
+            reason = Arrays.copyOf(reason, capacity);
+            polarity = Arrays.copyOf(polarity, capacity);
+            trail = Arrays.copyOf(trail, capacity);
+            trailLim = Arrays.copyOf(trailLim, capacity);
+            activity = Arrays.copyOf(activity, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+            heapIndex = Arrays.copyOf(heapIndex, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+        }
+        polarity[v] = true;
+        heapIndex[v] = -1;
+        watches.add(new ArrayList<>());
+        watches.add(new ArrayList<>());
+        heapInsert(v);
+        return v;
+    }
+
+    /**
+     * Add a clause. Must be called before solve.
+     * @param lits  the literals of the clause
+     * @return false if the clause set is already known to be unsatisfiable
+     */
+    public boolean addClause(int... lits) {
+        if (!ok)
+            return false;
+        int[] c = lits.clone();
+        Arrays.sort(c);
+        int size = 0;
+        for (int i = 0; i < c.length; ++i) {
+            if (i > 0 && c[i] == c[i - 1])
+                continue;
+            if (i > 0 && c[i] == (c[i - 1] ^ 1))
+                return true; // tautology
+            c[size++] = c[i];
+        }
+        c = Arrays.copyOf(c, size);
+        if (size == 0) {
+            ok = false;
+        } else if (size == 1) {
+            if (value(c[0]) == FALSE)
+                ok = false;
+            else if (value(c[0]) == UNDEF)
+                enqueue(c[0], null);
+        } else {
+            Clause clause = new Clause(c, false);
+            clauses.add(clause);
+            attach(clause);
+        }
+        return ok;
+    }
+
+    /**
+     * Solve the clause set
+     * @return true if it is satisfiable, false otherwise
+     */
+    public boolean solve() {
+        if (!ok || propagate() != null)
+            return ok = false;
+        maxLearnts = Math.max(clauses.size() / 3.0, 1000);
+        for (int restart = 0;; ++restart) {
+            int result = search((long) (luby(restart) * RESTART_BASE));
+            if (result != 0)
+                return result > 0;
+        }
+    }
+
+    /**
+     * The value of a variable in the model found by the last successful solve
+     * @param var  the variable
+     * @return true if the variable is true
+     */
+    public boolean modelValue(int var) {
+        return assigns[var] == TRUE;
+    }
+
+    public long getDecisions() {
+        return decisions;
+    }
+
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    public long getPropagations() {
+        return propagations;
+    }
+
+    /**
+     * Search until a model is found, unsatisfiability is proven or the conflict budget runs out
+     * @param budget  the number of conflicts before a restart
+     * @return 1 if satisfiable, -1 if unsatisfiable, 0 on restart
+     */
+    private int search(long budget) {
+        long conflictCount = 0;
+        List<Integer> learnt = new ArrayList<>();
+        while (true) {
+            Clause confl = propagate();
+            if (confl != null) {
+                ++conflicts;
+                ++conflictCount;
+                if (decisionLevel == 0)
+                    return -1;
+                learnt.clear();
+                int backtrackLevel = analyze(confl, learnt);
+                cancelUntil(backtrackLevel);
+                if (learnt.size() == 1) {
+                    enqueue(learnt.get(0), null);
+                } else {
+                    int[] lits = new int[learnt.size()];
+                    for (int i = 0; i < lits.length; ++i)
+                        lits[i] = learnt.get(i);
+                    Clause c = new Clause(lits, true);
+                    learnts.add(c);
+                    attach(c);
+                    bumpClause(c);
+                    enqueue(lits[0], c);
+                }
+                varInc /= VAR_DECAY;
+                claInc /= CLAUSE_DECAY;
+            } else {
+                if (conflictCount >= budget) {
+                    cancelUntil(0);
+                    return 0;
+                }
+                if (learnts.size() - trailSize >= maxLearnts) {
+                    reduceDB();
+                    maxLearnts *= LEARNT_GROWTH;
+                }
+                int next = pickBranchVariable();
+                if (next < 0)
+                    return 1;
+                ++decisions;
+                trailLim[decisionLevel++] = trailSize;
+                enqueue(polarity[next] ? negative(next) : positive(next), null);
+            }
+        }
+    }
+
+    private byte value(int lit) {
+        byte v = assigns[var(lit)];
+        return (lit & 1) == 0 ? v : (byte) -v;
+    }
+
+    private void enqueue(int lit, Clause from) {
+        int v = var(lit);
+        assigns[v] = (lit & 1) == 0 ? TRUE : FALSE;
+        level[v] = decisionLevel;
+        reason[v] = from;
+        trail[trailSize++] = lit;
+    }
+
+    private void attach(Clause c) {
+        watches.get(c.lits[0] ^ 1).add(c);
+        watches.get(c.lits[1] ^ 1).add(c);
+    }
+
+    /**
+     * Unit propagation with two watched literals
+     * @return a conflicting clause, or null if there is no conflict
+     */
+    private Clause propagate() {
+        while (qhead < trailSize) {
+            int p = trail[qhead++];
+            int falseLit = p ^ 1;
+            List<Clause> ws = watches.get(p);
+            int i = 0, j = 0;
+            ++propagations;
+            while (i < ws.size()) {
+                Clause c = ws.get(i++);
+                if (c.deleted)
+                    continue;
+                int[] lits = c.lits;
+                if (lits[0] == falseLit) {
+                    lits[0] = lits[1];
+                    lits[1] = falseLit;
+                }
+                if (value(lits[0]) == TRUE) {
+                    ws.set(j++, c);
+                    continue;
+                }
+                boolean found = false;
+                for (int k = 2; k < lits.length; ++k) {
+                    if (value(lits[k]) != FALSE) {
+                        lits[1] = lits[k];
+                        lits[k] = falseLit;
+                        watches.get(lits[1] ^ 1).add(c);
+                        found = true;
+                        break;
+                    }
+                }
+                if (found)
+                    continue;
+                ws.set(j++, c);
+                if (value(lits[0]) == FALSE) {
+                    while (i < ws.size())
+                        ws.set(j++, ws.get(i++));
+                    ws.subList(j, ws.size()).clear();
+                    qhead = trailSize;
+                    return c;
+                }
+                enqueue(lits[0], c);
+            }
+            ws.subList(j, ws.size()).clear();
+        }
+        return null;
+    }
+
+    /**
+     * First UIP conflict analysis
+     * @param confl   the conflicting clause
+     * @param learnt  filled with the learnt clause, asserting literal first
+     * @return the level to backtrack to
+     */
+    private int analyze(Clause confl, List<Integer> learnt) {
+        int pathCount = 0;
+        int p = -1;
+        int index = trailSize - 1;
+        learnt.add(-1);
+        do {
+            if (confl.learnt)
+                bumpClause(confl);
+            for (int k = (p == -1 ? 0 : 1); k < confl.lits.length; ++k) {
+                int q = confl.lits[k];
+                int v = var(q);
+                if (!seen[v] && level[v] > 0) {
+                    seen[v] = true;
+                    bumpVariable(v);
+                    if (level[v] >= decisionLevel)
+                        ++pathCount;
+                    else
+                        learnt.add(q);
+                }
+            }
+            while (!seen[var(trail[index--])]);
+            p = trail[index + 1];
+            confl = reason[var(p)];
+            seen[var(p)] = false;
+            --pathCount;
+        } while (pathCount > 0);
+        learnt.set(0, p ^ 1);
+
+        // local minimization: drop literals implied by other literals of the clause
+        List<Integer> all = new ArrayList<>(learnt);
+        int size = 1;
+        for (int i = 1; i < learnt.size(); ++i) {
+            int q = learnt.get(i);
+            Clause r = reason[var(q)];
+            boolean keep = r == null;
+            for (int k = 1; !keep && k < r.lits.length; ++k) {
+                int v = var(r.lits[k]);
+                if (!seen[v] && level[v] > 0)
+                    keep = true;
+            }
+            if (keep)
+                learnt.set(size++, q);
+        }
+        learnt.subList(size, learnt.size()).clear();
+        for (int q : all)
+            seen[var(q)] = false;
+
+        // put the literal with the highest level second, so that it is watched
+        int backtrackLevel = 0;
+        int max = 1;
+        for (int i = 1; i < learnt.size(); ++i) {
+            if (level[var(learnt.get(i))] > backtrackLevel) {
+                backtrackLevel = level[var(learnt.get(i))];
+                max = i;
+            }
+        }
+        if (learnt.size() > 1)
+            learnt.set(max, learnt.set(1, learnt.get(max)));
+        return backtrackLevel;
+    }
+
+    private void cancelUntil(int target) {
+        if (decisionLevel <= target)
+            return;
+        for (int c = trailSize - 1; c >= trailLim[target]; --c) {
+            int v = var(trail[c]);
+            polarity[v] = (trail[c] & 1) == 1;
+            assigns[v] = UNDEF;
+            reason[v] = null;
+            if (heapIndex[v] < 0)
+                heapInsert(v);
+        }
+        trailSize = qhead = trailLim[target];
+        decisionLevel = target;
+    }
+
+    private int pickBranchVariable() {
+        while (heapSize > 0) {
+            int v = heapRemoveMax();
+            if (assigns[v] == UNDEF)
+                return v;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the less active half of the learnt clauses, keeping binary clauses and reasons
+     */
+    private void reduceDB() {
+        learnts.sort((a, b) -> Double.compare(a.activity, b.activity));
+        List<Clause> kept = new ArrayList<>();
+        int half = learnts.size() / 2;
+        for (int i = 0; i < learnts.size(); ++i) {
+            Clause c = learnts.get(i);
+            boolean locked = reason[var(c.lits[0])] == c && value(c.lits[0]) == TRUE;
+            if (i < half && c.lits.length > 2 && !locked)
+                c.deleted = true;
+            else
+                kept.add(c);
+        }
+        learnts = kept;
+    }
+
+    private void bumpVariable(int v) {
+        if ((activity[v] += varInc) > 1e100) {
+            for (int i = 0; i < numVars; ++i)
+                activity[i] *= 1e-100;
+            varInc *= 1e-100;
+        }
+        if (heapIndex[v] >= 0)
+            heapUp(heapIndex[v]);
+    }
+
+    private void bumpClause(Clause c) {
+        if ((c.activity += claInc) > 1e20) {
+            for (Clause l : learnts)
+                l.activity *= 1e-20;
+            claInc *= 1e-20;
+        }
+    }
+
+    /**
+     * The Luby restart sequence 1, 1, 2, 1, 1, 2, 4, ...
+     * @param x  the index in the sequence
+     * @return the x-th element of the sequence
+     */
+    private static double luby(int x) {
+        int size = 1, seq = 0;
+        while (size < x + 1) {
+            ++seq;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != x) {
+            size = (size - 1) >> 1;
+            --seq;
+            x = x % size;
+        }
+        return Math.pow(2, seq);
+    }
+
+    // binary max-heap of variables ordered by activity
+
+    private void heapInsert(int v) {
+        heapIndex[v] = heapSize;
+        heap[heapSize++] = v;
+        heapUp(heapIndex[v]);
+    }
+
+    private int heapRemoveMax() {
+        int top = heap[0];
+        heapIndex[top] = -1;
+        if (--heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            heapDown(0);
+        }
+        return top;
+    }
+
+    private void heapUp(int i) {
+        int v = heap[i];
+        while (i > 0 && activity[heap[(i - 1) >> 1]] < activity[v]) {
+            heap[i] = heap[(i - 1) >> 1];
+            heapIndex[heap[i]] = i;
+            i = (i - 1) >> 1;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+
+    private void heapDown(int i) {
+        int v = heap[i];
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]])
+                ++child;
+            if (activity[heap[child]] <= activity[v])
+                break;
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+}
@@ -0,0 +1,84 @@
+package csp_solver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary trace of search events
+ *
+ * Events are written into a preallocated buffer and flushed to a file through a channel when
+ * the buffer is full and on close. Each event takes EVENT_SIZE bytes (big endian):
+ *   int type << 24 | depth, int first operand, int second operand, long nanoseconds since start
+ * The operands depend on the type: (variable, value) for ASSIGN, PRUNE and BACKTRACK,
+ * (variable, 0) for WIPEOUT and INFER_BEGIN, (variable, 1 if consistent) for INFER_END and
+ * (variable, variable) for REVISE and REVISE_END. TraceAnalyzer reads the file back.
+ */
+public class SearchTrace implements Closeable {
+    public static final int ASSIGN = 1;
+    public static final int PRUNE = 2;
+    public static final int WIPEOUT = 3;
+    public static final int BACKTRACK = 4;
+    public static final int INFER_BEGIN = 5;
+    public static final int INFER_END = 6;
+    public static final int REVISE = 7;
+    public static final int REVISE_END = 8;
+
+    public static final int EVENT_SIZE = 3 * Integer.BYTES + Long.BYTES;
+    private static final int DEFAULT_CAPACITY = 1 << 16; // events
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final long start;
+
+    public SearchTrace(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param file      the trace file, truncated if it exists
+     * @param capacity  the number of events buffered before a flush
+     */
+    public SearchTrace(Path file, int capacity) throws IOException {
+        buffer = ByteBuffer.allocateDirect(capacity * EVENT_SIZE);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        start = System.nanoTime();
+    }
+
+    /**
+     * Record an event
+     * @param type    the event type
+     * @param depth   the search depth
+     * @param first   the first operand
+     * @param second  the second operand
+     */
+    public void record(int type, int depth, int first, int second) {
+        if (!buffer.hasRemaining())
+            flush();
+        buffer.putInt(type << 24 | (depth & 0xFFFFFF));
+        buffer.putInt(first);
+        buffer.putInt(second);
+        buffer.putLong(System.nanoTime() - start);
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
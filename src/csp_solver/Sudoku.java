@@ -13,14 +13,27 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import javafx.util.Pair;
 
 public class Sudoku {
     private ConstraintSatisfactionProblem solver = new ConstraintSatisfactionProblem();
     private int boardSize;
     private int sqrt;
-    private static final String SHORT_TEST = "sudoku_short";
+    static final String SHORT_TEST = "sudoku_short";
     private static final String LONG_TEST = "sudoku_test";
+    private static final int CACHE_CAPACITY = 10000;
+    private static final SudokuCache cache = new SudokuCache(CACHE_CAPACITY);
+    
+    // if FAST_PATH is chosen, puzzles go through singles and locked candidates before the general solver
+    private static final boolean FAST_PATH = true;
+    private static final ThreadLocal<SudokuPropagator> propagator = ThreadLocal.withInitial(() -> new SudokuPropagator(9));
+    private static final AtomicInteger fastPathTotal = new AtomicInteger();
+    private static final AtomicInteger fastPathSolved = new AtomicInteger();
+    
+    // batch puzzles with more than this many bits of search space left after propagation are split
+    private static final double SPLIT_THRESHOLD = 100.0;
     
     // Constructor
     @SuppressWarnings("boxing")
@@ -84,6 +97,25 @@ public class Sudoku {
         }
     }
     
+    /**
+     * Add or clear a given on a board that may already have been solved.
+     * The next solve only re-propagates around the changed cell and starts from the previous solution.
+     * @param row     the row of the cell
+     * @param column  the column of the cell
+     * @param value   the given, or 0 to clear it
+     */
+    @SuppressWarnings("boxing")
+    public void setCell(int row, int column, int value) {
+        Set<Integer> domain = new HashSet<>();
+        if (value == 0) {
+            for (int i = 1; i <= boardSize; ++i)
+                domain.add(i);
+        } else {
+            domain.add(value);
+        }
+        solver.setDomain(row * boardSize + (column + 1), domain);
+    }
+    
     @SuppressWarnings("boxing")
     public int[][] solve() {
         Map<Integer, Integer> solution = solver.solve();
@@ -96,31 +128,125 @@ public class Sudoku {
         return result;
     }
     
+    /**
+     * Solve a board through the shared solution cache. Boards equivalent to a cached one
+     * under the Sudoku symmetries are answered without building or searching the network.
+     * @param board  the puzzle, 0 for an empty cell
+     * @return the solution, or null if there is none
+     */
+    public static int[][] solveCached(int[][] board) {
+        int[][] solution = cache.get(board);
+        if (solution == null) {
+            solution = solveFast(board);
+            if (solution != null)
+                cache.put(board, solution);
+        }
+        return solution;
+    }
+    
+    public static SudokuCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * @param size  the size of the board
+     * @return the propagator of this thread for a 9x9 board, a new one for other sizes
+     */
+    private static SudokuPropagator propagatorFor(int size) {
+        return size == 9 ? propagator.get() : new SudokuPropagator(size);
+    }
+    
+    /**
+     * Solve a board by propagation alone when possible. Only boards that stay undecided after
+     * naked singles, hidden singles and locked candidates are handed to the general solver,
+     * with the cells decided so far as extra givens.
+     * @param board  the puzzle, 0 for an empty cell
+     * @return the solution, or null if there is none
+     */
+    public static int[][] solveFast(int[][] board) {
+        return solveFast(board, true, () -> false);
+    }
+    
+    /**
+     * Solve a board by propagation alone when possible, see solveFast(board)
+     * @param board      the puzzle, 0 for an empty cell
+     * @param count      whether the board counts as a puzzle in the fast path statistics,
+     *                   false for a part of a puzzle that is counted elsewhere
+     * @param cancelled  checked at every search node, the search gives up once it returns true
+     * @return the solution, or null if there is none or the search was cancelled
+     */
+    static int[][] solveFast(int[][] board, boolean count, BooleanSupplier cancelled) {
+        SudokuPropagator p = propagatorFor(board.length);
+        int status = p.propagate(board);
+        if (count)
+            countFastPath(status != SudokuPropagator.UNDECIDED);
+        if (status == SudokuPropagator.CONTRADICTION)
+            return null;
+        int[][] reduced = new int[board.length][board.length];
+        p.getBoard(reduced);
+        if (status == SudokuPropagator.SOLVED)
+            return reduced;
+        Sudoku sudoku = new Sudoku(reduced);
+        sudoku.solver.setCancellation(cancelled);
+        return sudoku.solve();
+    }
+    
+    /**
+     * Count a puzzle in the fast path statistics
+     * @param resolved  true if propagation alone solved the puzzle or proved it has no solution
+     */
+    static void countFastPath(boolean resolved) {
+        fastPathTotal.incrementAndGet();
+        if (resolved)
+            fastPathSolved.incrementAndGet();
+    }
+    
+    public static void printFastPathStats() {
+        printFastPathStats(fastPathSolved.get(), fastPathTotal.get());
+    }
+    
+    @SuppressWarnings("boxing")
+    public static void printFastPathStats(int solved, int total) {
+        System.out.println(String.format("Fast path resolved %d of %d puzzles", solved, total));
+    }
+    
     @SuppressWarnings("boxing")
     public boolean verify(int[][] solution) {
-        if (solution == null)
+        return isValid(solution, boardSize);
+    }
+    
+    /**
+     * Check a solution
+     * @param solution   the solved board
+     * @param boardSize  the number of rows of the board, a perfect square
+     * @return true if every row, column and block holds each digit once
+     */
+    @SuppressWarnings("boxing")
+    private static boolean isValid(int[][] solution, int boardSize) {
+        int sqrt = (int) Math.sqrt(boardSize);
+        if (solution == null || solution.length != boardSize)
             return false;
-        for (int i = 0; i < 9; ++i) {
+        for (int i = 0; i < boardSize; ++i) {
             Set<Integer> test = new HashSet<>();
-            for (int j = 0; j < 9; ++j)
-                if (1 <= solution[i][j] && solution[i][j] <= 9)
+            for (int j = 0; j < boardSize; ++j)
+                if (1 <= solution[i][j] && solution[i][j] <= boardSize)
                     test.add(solution[i][j]);
-            if (test.size() != 9)
+            if (test.size() != boardSize)
                 return false;
             test.clear();
-            for (int j = 0; j < 9; ++j)
-                if (1 <= solution[j][i] && solution[j][i] <= 9)
+            for (int j = 0; j < boardSize; ++j)
+                if (1 <= solution[j][i] && solution[j][i] <= boardSize)
                     test.add(solution[j][i]);
-            if (test.size() != 9)
+            if (test.size() != boardSize)
                 return false;
             test.clear();
             for (int j = 0; j < boardSize; ++j) {
                 int row = (i / sqrt) * sqrt + j / sqrt;
                 int column = (i * sqrt) % boardSize + j % sqrt;
-                if (1 <= solution[row][column] && solution[row][column] <= 9)
+                if (1 <= solution[row][column] && solution[row][column] <= boardSize)
                     test.add(solution[row][column]);
             }
-            if (test.size() != 9)
+            if (test.size() != boardSize)
                 return false;
         }
         return true;
@@ -143,6 +269,70 @@ public class Sudoku {
         return solver.getConstraintCheck();
     }
     
+    /**
+     * Result of a measured solve, as reported by benchmark
+     */
+    public static class Measurement {
+        public final int[][] solution;
+        public final int nodes;
+        public final int constraints;
+        public final double duration;
+        public final boolean fastPath; // decided by propagation alone
+        public final boolean cached;   // answered by the solution cache
+
+        public Measurement(int[][] solution, int nodes, int constraints, double duration, boolean fastPath, boolean cached) {
+            this.solution = solution;
+            this.nodes = nodes;
+            this.constraints = constraints;
+            this.duration = duration;
+            this.fastPath = fastPath;
+            this.cached = cached;
+        }
+
+        public boolean isValid() {
+            return solution != null && Sudoku.isValid(solution, solution.length);
+        }
+    }
+    
+    /**
+     * Solve a board the way benchmark does and measure it. Building the network is not timed.
+     * The board goes through the solution cache first, and its solution is stored there.
+     * @param testBoard  the puzzle, 0 for an empty cell
+     * @return the solution and the statistics of the solve
+     */
+    public static Measurement measure(int[][] testBoard) {
+        long before = System.currentTimeMillis();
+        int[][] cached = cache.get(testBoard);
+        if (cached != null)
+            return new Measurement(cached, 0, 0, (System.currentTimeMillis() - before) / 1000.0, false, true);
+        int[][] puzzle = testBoard;
+        int status = SudokuPropagator.UNDECIDED;
+        if (FAST_PATH) {
+            fastPathTotal.incrementAndGet();
+            SudokuPropagator p = propagatorFor(testBoard.length);
+            status = p.propagate(testBoard);
+            testBoard = new int[testBoard.length][testBoard.length];
+            p.getBoard(testBoard);
+        }
+        long fastPathTime = System.currentTimeMillis() - before;
+        int[][] solution = testBoard;
+        int exploredNode = 0;
+        int constraintCheck = 0;
+        if (status == SudokuPropagator.UNDECIDED) {
+            Sudoku sudoku = new Sudoku(testBoard);
+            before = System.currentTimeMillis() - fastPathTime; // leave out building the network, as before
+            solution = sudoku.solve();
+            exploredNode = sudoku.getNodeCount();
+            constraintCheck = sudoku.getConstraintCheck();
+        } else {
+            fastPathSolved.incrementAndGet();
+        }
+        double duration = (System.currentTimeMillis() - before) / 1000.0;
+        if (isValid(solution, puzzle.length))
+            cache.put(puzzle, solution);
+        return new Measurement(solution, exploredNode, constraintCheck, duration, status != SudokuPropagator.UNDECIDED, false);
+    }
+    
     @SuppressWarnings("boxing")
     public static final void benchmark() {
         Charset charset = Charset.forName("US-ASCII");
@@ -152,54 +342,104 @@ public class Sudoku {
         List<Double> durations = new ArrayList<>();
         double max = Double.NEGATIVE_INFINITY;
         String hardest = "";
+        int cachedCount = 0;
         try (BufferedReader br = Files.newBufferedReader(file, charset)) {
             for (String b = br.readLine(); b != null; b = br.readLine()){
                 String[] board = new String[9];
                 for (int i = 0; i < 9; ++i) {
                     board[i] = b.substring(i * 9, (i + 1) * 9);
                 }
-                int[][] testBoard = transform(board);
-                Sudoku sudoku = new Sudoku(testBoard);
-                long before = System.currentTimeMillis();
-                int[][] solution = sudoku.solve();
-                if (!sudoku.verify(solution)) {
+                Measurement m = measure(transform(board));
+                if (!m.isValid()) {
                     System.out.println("Solution not found for " + b);
                     break;
                 }
-                double duration = (System.currentTimeMillis() - before) / 1000.0;
-                int exploredNode = sudoku.getNodeCount();
-                int constraintCheck = sudoku.getConstraintCheck();
-                nodes.add(exploredNode);
-                constraints.add(constraintCheck);
-                durations.add(duration);
-                if (duration > max) {
-                    max = duration;
+                if (m.cached) {
+                    ++cachedCount; // not solved, so left out of the solver statistics
+                    continue;
+                }
+                nodes.add(m.nodes);
+                constraints.add(m.constraints);
+                durations.add(m.duration);
+                if (m.duration > max) {
+                    max = m.duration;
                     hardest = b;
                 }
             }
-            double averageNodes = nodes.stream().mapToInt(Integer::intValue).average().getAsDouble();
-            double averageConstraints = constraints.stream().mapToInt(Integer::intValue).average().getAsDouble();
-            double averageDuration = durations.stream().mapToDouble(Double::doubleValue).average().getAsDouble();
-            
-            double varianceNodes = nodes.stream().mapToDouble(i -> (i - averageNodes) * (i - averageNodes))
-                                                 .sum() / nodes.size();
-            double varianceConstraints = constraints.stream().mapToDouble(i -> (i - averageConstraints) * (i - averageConstraints))
-                                                             .sum() / constraints.size();
-            double varianceDuration = durations.stream().mapToDouble(i -> (i - averageDuration) * (i - averageDuration))
-                                                        .sum() / durations.size();
+            if (!durations.isEmpty())
+                printBenchmarkStats(nodes, constraints, durations, hardest);
+            System.out.println(String.format("Answered by the solution cache and left out of the statistics: %d puzzles",
+                    cachedCount));
+            if (FAST_PATH)
+                printFastPathStats();
+            cache.printStats();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Print the statistics of a benchmark run
+     * @param nodes        the explored nodes of each puzzle
+     * @param constraints  the constraints checked for each puzzle
+     * @param durations    the running time of each puzzle
+     * @param hardest      the puzzle with the longest running time
+     */
+    @SuppressWarnings("boxing")
+    public static void printBenchmarkStats(List<Integer> nodes, List<Integer> constraints, List<Double> durations, String hardest) {
+        double averageNodes = nodes.stream().mapToInt(Integer::intValue).average().getAsDouble();
+        double averageConstraints = constraints.stream().mapToInt(Integer::intValue).average().getAsDouble();
+        double averageDuration = durations.stream().mapToDouble(Double::doubleValue).average().getAsDouble();
+        
+        double varianceNodes = nodes.stream().mapToDouble(i -> (i - averageNodes) * (i - averageNodes))
+                                             .sum() / nodes.size();
+        double varianceConstraints = constraints.stream().mapToDouble(i -> (i - averageConstraints) * (i - averageConstraints))
+                                                         .sum() / constraints.size();
+        double varianceDuration = durations.stream().mapToDouble(i -> (i - averageDuration) * (i - averageDuration))
+                                                    .sum() / durations.size();
 
-            
-            int maxNodes = nodes.stream().mapToInt(Integer::intValue).max().getAsInt();
-            int maxConstraints = constraints.stream().mapToInt(Integer::intValue).max().getAsInt();
-            double maxDuration = durations.stream().mapToDouble(Double::doubleValue).max().getAsDouble();
-            System.out.println(averageNodes);
-            System.out.println(String.format("Running time: avg %.2f max %.2f variance %.2f", averageDuration, maxDuration, varianceDuration));
-            System.out.println(String.format("Explored nodes: avg %.2f max %d variance %.2f", averageNodes, maxNodes, varianceNodes));
-            System.out.println(String.format("Constraints checked: avg %.2f max %d variance %.2f", averageConstraints, maxConstraints, varianceConstraints));
-            System.out.println("Hardest instance: " + hardest);
+        
+        int maxNodes = nodes.stream().mapToInt(Integer::intValue).max().getAsInt();
+        int maxConstraints = constraints.stream().mapToInt(Integer::intValue).max().getAsInt();
+        double maxDuration = durations.stream().mapToDouble(Double::doubleValue).max().getAsDouble();
+        System.out.println(averageNodes);
+        System.out.println(String.format("Running time: avg %.2f max %.2f variance %.2f", averageDuration, maxDuration, varianceDuration));
+        System.out.println(String.format("Explored nodes: avg %.2f max %d variance %.2f", averageNodes, maxNodes, varianceNodes));
+        System.out.println(String.format("Constraints checked: avg %.2f max %d variance %.2f", averageConstraints, maxConstraints, varianceConstraints));
+        System.out.println("Hardest instance: " + hardest);
+    }
+    
+    /**
+     * Solve the benchmark puzzles as one batch on several worker threads, hardest first
+     * @param workers  the number of worker threads
+     */
+    public static final void batchBenchmark(int workers) {
+        Charset charset = Charset.forName("US-ASCII");
+        Path file = FileSystems.getDefault().getPath(".", SHORT_TEST);
+        List<int[][]> boards = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(file, charset)) {
+            for (String b = br.readLine(); b != null; b = br.readLine()){
+                String[] board = new String[9];
+                for (int i = 0; i < 9; ++i) {
+                    board[i] = b.substring(i * 9, (i + 1) * 9);
+                }
+                boards.add(transform(board));
+                lines.add(b);
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            return;
+        }
+        BatchScheduler scheduler = new BatchScheduler(workers, SPLIT_THRESHOLD);
+        List<int[][]> solutions = scheduler.solveAll(boards);
+        for (int i = 0; i < solutions.size(); ++i) {
+            if (!isValid(solutions.get(i), 9))
+                System.out.println("Solution not found for " + lines.get(i));
         }
+        scheduler.printStats();
+        printFastPathStats();
+        cache.printStats();
     }
     
     private static int[][] easyBoard;
@@ -0,0 +1,238 @@
+package csp_solver;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Solution cache for Sudoku, keyed by a canonical form of the puzzle.
+ *
+ * Puzzles that differ by a transposition, a permutation of bands or stacks, a permutation of
+ * rows (columns) within a band (stack) or a relabelling of the digits share one entry. The
+ * canonical form orders bands, stacks, rows and columns by an invariant signature (refined from
+ * the number of givens per line and how often each given digit occurs) and relabels digits in
+ * order of first appearance; ties are kept in their original order, so some equivalent puzzles
+ * may still get different keys. This only lowers the hit rate: a hit
+ * always maps back to a valid solution, since equal keys mean equal transformed puzzles.
+ *
+ * Entries are evicted in least recently used order once the capacity is reached.
+ * All methods are synchronized so that the cache can be shared between threads.
+ */
+public class SudokuCache {
+    private final int capacity;
+    private final Map<String, int[][]> entries;
+    private long hits;
+    private long misses;
+
+    public SudokuCache(int capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, int[][]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[][]> eldest) {
+                return size() > SudokuCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Look up the solution of a puzzle
+     * @param board  the puzzle, 0 for an empty cell
+     * @return the solution of board, or null on a miss
+     */
+    public int[][] get(int[][] board) {
+        Transform t = Transform.canonical(board);
+        int[][] canonicalSolution;
+        synchronized (this) {
+            canonicalSolution = entries.get(t.key);
+            if (canonicalSolution == null) {
+                ++misses;
+                return null;
+            }
+            ++hits;
+        }
+        return t.inverse(canonicalSolution);
+    }
+
+    /**
+     * Store the solution of a puzzle
+     * @param board     the puzzle, 0 for an empty cell
+     * @param solution  the solution of board
+     */
+    public void put(int[][] board, int[][] solution) {
+        Transform t = Transform.canonical(board);
+        int[][] canonicalSolution = t.apply(solution);
+        synchronized (this) {
+            entries.put(t.key, canonicalSolution);
+        }
+    }
+
+    /**
+     * The key of a puzzle in the cache, equal for the equivalent puzzles that share an entry
+     * @param board  the puzzle, 0 for an empty cell
+     * @return the canonical key of board
+     */
+    public String key(int[][] board) {
+        return Transform.canonical(board).key;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void printStats() {
+        long lookups = hits + misses;
+        System.out.println(String.format("Solution cache: %d hits, %d misses, hit rate %.2f%%, %d entries",
+                hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, entries.size()));
+    }
+
+    /**
+     * A symmetry of the Sudoku board: an optional transposition, followed by a permutation of the
+     * rows and of the columns, followed by a relabelling of the digits.
+     */
+    static class Transform {
+        private static final int REFINEMENT_ROUNDS = 3;
+
+        private final boolean transpose;
+        private final int[] rows;    // row r of the result is row rows[r] of the (transposed) board
+        private final int[] columns; // column c of the result is column columns[c] of the (transposed) board
+        private final int[] label;   // digit d is relabelled to label[d]
+        private final String key;
+
+        private Transform(int[][] board, boolean transpose) {
+            this.transpose = transpose;
+            int n = board.length;
+            int[][] b = transpose ? transposed(board) : board;
+            // signatures of the lines, invariant under every symmetry except the transposition
+            int[] frequency = new int[n + 1];
+            long[] rowSignature = new long[n];
+            long[] columnSignature = new long[n];
+            for (int i = 0; i < n; ++i) {
+                for (int j = 0; j < n; ++j) {
+                    if (b[i][j] != 0) {
+                        ++frequency[b[i][j]];
+                        ++rowSignature[i];
+                        ++columnSignature[j];
+                    }
+                }
+            }
+            for (int round = 0; round < REFINEMENT_ROUNDS; ++round) {
+                long[] nextRow = new long[n];
+                long[] nextColumn = new long[n];
+                for (int i = 0; i < n; ++i) {
+                    long[] rowCells = new long[n];
+                    long[] columnCells = new long[n];
+                    for (int j = 0; j < n; ++j) {
+                        if (b[i][j] != 0)
+                            rowCells[j] = columnSignature[j] * 31 + frequency[b[i][j]];
+                        if (b[j][i] != 0)
+                            columnCells[j] = rowSignature[j] * 31 + frequency[b[j][i]];
+                    }
+                    Arrays.sort(rowCells);
+                    Arrays.sort(columnCells);
+                    nextRow[i] = rowSignature[i] * 1000003 + Arrays.hashCode(rowCells);
+                    nextColumn[i] = columnSignature[i] * 1000003 + Arrays.hashCode(columnCells);
+                }
+                rowSignature = nextRow;
+                columnSignature = nextColumn;
+            }
+            rows = order(rowSignature);
+            columns = order(columnSignature);
+
+            // relabel digits in order of first appearance, then fill in the unused ones
+            label = new int[n + 1];
+            int next = 1;
+            for (int i = 0; i < n; ++i) {
+                for (int j = 0; j < n; ++j) {
+                    int d = b[rows[i]][columns[j]];
+                    if (d != 0 && label[d] == 0)
+                        label[d] = next++;
+                }
+            }
+            for (int d = 1; d <= n; ++d) {
+                if (label[d] == 0)
+                    label[d] = next++;
+            }
+
+            char[] k = new char[n * n];
+            for (int i = 0; i < n; ++i)
+                for (int j = 0; j < n; ++j)
+                    k[i * n + j] = (char) ('0' + label[b[rows[i]][columns[j]]]);
+            key = k.length + ":" + new String(k);
+        }
+
+        static Transform canonical(int[][] board) {
+            Transform straight = new Transform(board, false);
+            Transform flipped = new Transform(board, true);
+            return straight.key.compareTo(flipped.key) <= 0 ? straight : flipped;
+        }
+
+        /**
+         * Order the bands (groups of sqrt consecutive lines) by the signatures of their lines,
+         * then the lines within each band
+         * @param signature  the signature of each line
+         * @return the permutation of lines
+         */
+        private static int[] order(long[] signature) {
+            int n = signature.length;
+            int sqrt = (int) Math.sqrt(n);
+            Integer[] bands = new Integer[sqrt];
+            long[] bandSignature = new long[sqrt];
+            for (int i = 0; i < sqrt; ++i) {
+                long[] lines = Arrays.copyOfRange(signature, i * sqrt, (i + 1) * sqrt);
+                Arrays.sort(lines);
+                bandSignature[i] = Arrays.hashCode(lines);
+                bands[i] = i;
+            }
+            Arrays.sort(bands, (a, b) -> Long.compare(bandSignature[a], bandSignature[b]));
+
+            int[] result = new int[n];
+            int r = 0;
+            for (int band : bands) {
+                Integer[] lines = new Integer[sqrt];
+                for (int i = 0; i < sqrt; ++i)
+                    lines[i] = band * sqrt + i;
+                Arrays.sort(lines, (a, b) -> Long.compare(signature[a], signature[b]));
+                for (int line : lines)
+                    result[r++] = line;
+            }
+            return result;
+        }
+
+        private static int[][] transposed(int[][] board) {
+            int n = board.length;
+            int[][] result = new int[n][n];
+            for (int i = 0; i < n; ++i)
+                for (int j = 0; j < n; ++j)
+                    result[j][i] = board[i][j];
+            return result;
+        }
+
+        int[][] apply(int[][] board) {
+            int n = board.length;
+            int[][] b = transpose ? transposed(board) : board;
+            int[][] result = new int[n][n];
+            for (int i = 0; i < n; ++i)
+                for (int j = 0; j < n; ++j)
+                    result[i][j] = label[b[rows[i]][columns[j]]];
+            return result;
+        }
+
+        int[][] inverse(int[][] board) {
+            int n = board.length;
+            int[] unlabel = new int[n + 1];
+            for (int d = 0; d <= n; ++d)
+                unlabel[label[d]] = d;
+            int[][] result = new int[n][n];
+            for (int i = 0; i < n; ++i)
+                for (int j = 0; j < n; ++j)
+                    result[rows[i]][columns[j]] = unlabel[board[i][j]];
+            return transpose ? transposed(result) : result;
+        }
+    }
+}
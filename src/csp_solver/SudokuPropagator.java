@@ -0,0 +1,264 @@
+package csp_solver;
+
+/**
+ * Propagation-only Sudoku solver over bitmask candidates
+ *
+ * Applies naked singles, hidden singles and locked candidates (pointing and claiming) until
+ * nothing changes. Many puzzles are fully decided this way; the others are left with more
+ * givens for the general solver. All arrays are allocated once, so an instance can be reused
+ * across puzzles of the same size without allocating. Instances are not thread safe.
+ */
+public class SudokuPropagator {
+    public static final int SOLVED = 1;
+    public static final int UNDECIDED = 0;
+    public static final int CONTRADICTION = -1;
+
+    private final int boardSize;
+    private final int sqrt;
+    private final int full;
+    private final int[][] units;   // rows, then columns, then blocks
+    private final int[][] peers;
+    private final int[] rowOf, columnOf, blockOf;
+
+    private final int[] candidates;
+    private final int[] value;
+    private final int[] stack;
+    private int stackSize;
+    private int assigned;
+
+    public SudokuPropagator(int boardSize) {
+        this.boardSize = boardSize;
+        sqrt = (int) Math.sqrt(boardSize);
+        full = (1 << (boardSize + 1)) - 2; // bits 1..boardSize
+        int cells = boardSize * boardSize;
+        units = new int[3 * boardSize][boardSize];
+        rowOf = new int[cells];
+        columnOf = new int[cells];
+        blockOf = new int[cells];
+        for (int i = 0; i < boardSize; ++i) {
+            for (int j = 0; j < boardSize; ++j) {
+                int cell = i * boardSize + j;
+                int block = (i / sqrt) * sqrt + j / sqrt;
+                int position = (i % sqrt) * sqrt + j % sqrt;
+                units[i][j] = cell;
+                units[boardSize + j][i] = cell;
+                units[2 * boardSize + block][position] = cell;
+                rowOf[cell] = i;
+                columnOf[cell] = j;
+                blockOf[cell] = block;
+            }
+        }
+        int peerCount = 3 * boardSize - 2 * sqrt - 1;
+        peers = new int[cells][peerCount];
+        for (int cell = 0; cell < cells; ++cell) {
+            int p = 0;
+            for (int other = 0; other < cells; ++other) {
+                if (other != cell && (rowOf[other] == rowOf[cell] || columnOf[other] == columnOf[cell]
+                        || blockOf[other] == blockOf[cell]))
+                    peers[cell][p++] = other;
+            }
+        }
+        candidates = new int[cells];
+        value = new int[cells];
+        stack = new int[cells];
+    }
+
+    /**
+     * Propagate a board
+     * @param board  the puzzle, 0 for an empty cell
+     * @return SOLVED, UNDECIDED or CONTRADICTION
+     */
+    public int propagate(int[][] board) {
+        stackSize = 0;
+        assigned = 0;
+        for (int cell = 0; cell < candidates.length; ++cell) {
+            candidates[cell] = full;
+            value[cell] = 0;
+        }
+        for (int i = 0; i < boardSize; ++i)
+            for (int j = 0; j < boardSize; ++j)
+                if (board[i][j] != 0 && !assign(i * boardSize + j, board[i][j]))
+                    return CONTRADICTION;
+
+        boolean changed = true;
+        while (changed) {
+            if (!nakedSingles())
+                return CONTRADICTION;
+            if (assigned == candidates.length)
+                return SOLVED;
+            int hidden = hiddenSingles();
+            if (hidden < 0)
+                return CONTRADICTION;
+            changed = hidden > 0;
+            if (!changed) {
+                int locked = lockedCandidates();
+                if (locked < 0)
+                    return CONTRADICTION;
+                changed = locked > 0;
+            }
+        }
+        return assigned == candidates.length ? SOLVED : UNDECIDED;
+    }
+
+    /**
+     * The board after the last propagation, 0 for the cells that are still undecided
+     * @param result  filled with the values
+     */
+    public void getBoard(int[][] result) {
+        for (int i = 0; i < boardSize; ++i)
+            for (int j = 0; j < boardSize; ++j)
+                result[i][j] = value[i * boardSize + j];
+    }
+
+    /**
+     * Size of the remaining search space after the last propagation
+     * @return log2 of the product of the candidate counts of the undecided cells
+     */
+    public double searchSpace() {
+        double bits = 0;
+        for (int cell = 0; cell < candidates.length; ++cell)
+            if (value[cell] == 0)
+                bits += Math.log(Integer.bitCount(candidates[cell])) / Math.log(2);
+        return bits;
+    }
+
+    /**
+     * The undecided cell with the fewest candidates after the last propagation
+     * @return the cell as row * boardSize + column, or -1 if every cell is decided
+     */
+    public int mostConstrainedCell() {
+        int best = -1;
+        for (int cell = 0; cell < candidates.length; ++cell)
+            if (value[cell] == 0 && (best < 0 || Integer.bitCount(candidates[cell]) < Integer.bitCount(candidates[best])))
+                best = cell;
+        return best;
+    }
+
+    /**
+     * The candidates of a cell after the last propagation
+     * @param cell  the cell as row * boardSize + column
+     * @return a bitmask with bit d set if d is a candidate
+     */
+    public int getCandidates(int cell) {
+        return candidates[cell];
+    }
+
+    private boolean assign(int cell, int digit) {
+        int bit = 1 << digit;
+        if ((candidates[cell] & bit) == 0)
+            return false;
+        if (value[cell] != 0)
+            return true;
+        candidates[cell] = bit;
+        value[cell] = digit;
+        ++assigned;
+        stack[stackSize++] = cell;
+        return true;
+    }
+
+    /**
+     * Remove the value of every assigned cell from its peers, assigning the cells left with a
+     * single candidate
+     * @return false on a contradiction
+     */
+    private boolean nakedSingles() {
+        while (stackSize > 0) {
+            int cell = stack[--stackSize];
+            int bit = candidates[cell];
+            for (int peer : peers[cell]) {
+                if ((candidates[peer] & bit) == 0)
+                    continue;
+                if (!eliminate(peer, bit))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean eliminate(int cell, int bit) {
+        int remaining = candidates[cell] & ~bit;
+        if (remaining == 0)
+            return false;
+        candidates[cell] = remaining;
+        if (value[cell] == 0 && (remaining & (remaining - 1)) == 0)
+            return assign(cell, Integer.numberOfTrailingZeros(remaining));
+        return true;
+    }
+
+    /**
+     * Assign every digit that has a single place left in a unit
+     * @return the number of assignments, or -1 on a contradiction
+     */
+    private int hiddenSingles() {
+        int count = 0;
+        for (int[] unit : units) {
+            for (int digit = 1; digit <= boardSize; ++digit) {
+                int bit = 1 << digit;
+                int place = -1;
+                int places = 0;
+                for (int cell : unit) {
+                    if ((candidates[cell] & bit) != 0) {
+                        place = cell;
+                        ++places;
+                    }
+                }
+                if (places == 0)
+                    return -1;
+                if (places == 1 && value[place] == 0) {
+                    if (!assign(place, digit) || !nakedSingles())
+                        return -1;
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Locked candidates: a digit confined to one line within a block is removed from the rest
+     * of that line (pointing), and a digit confined to one block within a line is removed from
+     * the rest of that block (claiming)
+     * @return the number of eliminations, or -1 on a contradiction
+     */
+    private int lockedCandidates() {
+        int count = 0;
+        for (int u = 0; u < units.length; ++u) {
+            for (int digit = 1; digit <= boardSize; ++digit) {
+                int bit = 1 << digit;
+                int rows = 0, columns = 0, blocks = 0;
+                for (int cell : units[u]) {
+                    if ((candidates[cell] & bit) != 0 && value[cell] == 0) {
+                        rows |= 1 << rowOf[cell];
+                        columns |= 1 << columnOf[cell];
+                        blocks |= 1 << blockOf[cell];
+                    }
+                }
+                int target;
+                if (u >= 2 * boardSize && Integer.bitCount(rows) == 1)
+                    target = Integer.numberOfTrailingZeros(rows);                   // pointing, row
+                else if (u >= 2 * boardSize && Integer.bitCount(columns) == 1)
+                    target = boardSize + Integer.numberOfTrailingZeros(columns);    // pointing, column
+                else if (u < 2 * boardSize && Integer.bitCount(blocks) == 1)
+                    target = 2 * boardSize + Integer.numberOfTrailingZeros(blocks); // claiming
+                else
+                    continue;
+                for (int cell : units[target]) {
+                    if (value[cell] != 0 || (candidates[cell] & bit) == 0 || inUnit(cell, u))
+                        continue;
+                    if (!eliminate(cell, bit) || !nakedSingles())
+                        return -1;
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean inUnit(int cell, int u) {
+        if (u < boardSize)
+            return rowOf[cell] == u;
+        if (u < 2 * boardSize)
+            return columnOf[cell] == u - boardSize;
+        return blockOf[cell] == u - 2 * boardSize;
+    }
+}
@@ -0,0 +1,150 @@
+package csp_solver;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offline analysis of SearchTrace files
+ *
+ * Reports the shape of the search tree (assignments and backtracks per depth), the hot variables
+ * (most assigned, pruned and wiped out) and where inference time is spent (per assigned variable,
+ * and revisions and time per revised arc). Several traces, e.g. one per solve of a benchmark, are
+ * added up.
+ *
+ * Usage: java csp_solver.TraceAnalyzer [trace file...]
+ * Without arguments, all the traces named TRACE_FILE.* in the working directory are read.
+ */
+public class TraceAnalyzer {
+    private static final int TOP = 10;
+
+    private Map<Integer, Integer> assignsPerDepth = new TreeMap<>();
+    private Map<Integer, Integer> backtracksPerDepth = new TreeMap<>();
+    private Map<Integer, Integer> assigns = new HashMap<>();
+    private Map<Integer, Integer> prunes = new HashMap<>();
+    private Map<Integer, Integer> wipeouts = new HashMap<>();
+    private Map<Integer, Long> inferenceTime = new HashMap<>();
+    private Map<String, Integer> revisions = new HashMap<>();
+    private Map<String, Long> revisionTime = new HashMap<>();
+    private int traces;
+    private long events;
+    private long totalInferenceTime;
+    private long duration;
+
+    public void analyze(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long end = 0;
+            Map<Integer, Long> inferenceStart = new HashMap<>();
+            long reviseStart = -1; // revisions do not nest
+            ++traces;
+            while (buffer.remaining() >= SearchTrace.EVENT_SIZE) {
+                int header = buffer.getInt();
+                int type = header >>> 24;
+                int depth = header & 0xFFFFFF;
+                int first = buffer.getInt();
+                int second = buffer.getInt();
+                long time = buffer.getLong();
+                ++events;
+                end = time;
+                switch (type) {
+                case SearchTrace.ASSIGN:
+                    assignsPerDepth.merge(depth, 1, Integer::sum);
+                    assigns.merge(first, 1, Integer::sum);
+                    break;
+                case SearchTrace.BACKTRACK:
+                    backtracksPerDepth.merge(depth, 1, Integer::sum);
+                    break;
+                case SearchTrace.PRUNE:
+                    prunes.merge(first, 1, Integer::sum);
+                    break;
+                case SearchTrace.WIPEOUT:
+                    wipeouts.merge(first, 1, Integer::sum);
+                    break;
+                case SearchTrace.INFER_BEGIN:
+                    inferenceStart.put(depth, time);
+                    break;
+                case SearchTrace.INFER_END:
+                    Long begin = inferenceStart.remove(depth);
+                    if (begin != null) {
+                        inferenceTime.merge(first, time - begin, Long::sum);
+                        totalInferenceTime += time - begin;
+                    }
+                    break;
+                case SearchTrace.REVISE:
+                    revisions.merge(first + "->" + second, 1, Integer::sum);
+                    reviseStart = time;
+                    break;
+                case SearchTrace.REVISE_END:
+                    if (reviseStart >= 0)
+                        revisionTime.merge(first + "->" + second, time - reviseStart, Long::sum);
+                    reviseStart = -1;
+                    break;
+                default:
+                    break;
+                }
+            }
+            duration += end;
+        }
+    }
+
+    public void printReport() {
+        System.out.println(String.format("Events: %d in %d traces over %.3f second", events, traces, duration / 1e9));
+
+        System.out.println("Tree shape (depth: assignments / backtracks):");
+        for (Map.Entry<Integer, Integer> e : assignsPerDepth.entrySet())
+            System.out.println(String.format("  %4d: %d / %d", e.getKey(), e.getValue(),
+                    backtracksPerDepth.getOrDefault(e.getKey(), 0)));
+
+        System.out.println("Most assigned variables: " + top(assigns));
+        System.out.println("Most pruned variables: " + top(prunes));
+        System.out.println("Most wiped out variables: " + top(wipeouts));
+        System.out.println(String.format("Inference time: %.3f second (%.2f%% of the search)",
+                totalInferenceTime / 1e9, duration == 0 ? 0.0 : 100.0 * totalInferenceTime / duration));
+        System.out.println("Inference time by assigned variable (nanoseconds): " + top(inferenceTime));
+        System.out.println("Most revised arcs: " + top(revisions));
+        System.out.println("Revision time by arc (nanoseconds): " + top(revisionTime));
+    }
+
+    private static <K, V extends Comparable<V>> List<String> top(Map<K, V> counts) {
+        List<Map.Entry<K, V>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> b.getValue().compareTo(a.getValue()));
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(TOP, entries.size()); ++i)
+            result.add(entries.get(i).getKey() + "=" + entries.get(i).getValue());
+        return result;
+    }
+
+    public static void main(String[] args) {
+        List<Path> files = new ArrayList<>();
+        for (String arg : args)
+            files.add(FileSystems.getDefault().getPath(arg));
+        TraceAnalyzer analyzer = new TraceAnalyzer();
+        try {
+            if (files.isEmpty()) {
+                Path prefix = FileSystems.getDefault().getPath(ConstraintSatisfactionProblem.TRACE_FILE).toAbsolutePath();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(prefix.getParent(),
+                        prefix.getFileName() + ".*")) {
+                    for (Path file : stream)
+                        files.add(file);
+                }
+            }
+            for (Path file : files)
+                analyzer.analyze(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        analyzer.printReport();
+    }
+}